@@ -0,0 +1,124 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * View of the attributes an operation asks for, computed once per object class and attribute set signature of the
+ * operation options. Keeps the per-object checks (saturation, partial values) free of set construction. The
+ * requested attributes never change; the selector clauses derived from them are cached lazily in a small concurrent
+ * map, which is the only mutable state, so a plan is safe to share between threads and operations.
+ */
+public class AttributePlan {
+
+    private static final int SELECTOR_CACHE_SIZE = 32;
+
+    private final String type;
+    private final Set<String> attributesToGet;
+    private final boolean allowPartialAttributeValues;
+    private final Map<SelectorKey, String> selectorCache = new ConcurrentHashMap<>();
+
+    AttributePlan(String type, Set<String> attributesToGet, boolean allowPartialAttributeValues) {
+        this.type = type;
+        this.attributesToGet = Collections.unmodifiableSet(attributesToGet);
+        this.allowPartialAttributeValues = allowPartialAttributeValues;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return Attributes to get, including the returned-by-default attributes if requested
+     */
+    public Set<String> getAttributesToGet() {
+        return attributesToGet;
+    }
+
+    public boolean isAllowPartialAttributeValues() {
+        return allowPartialAttributeValues;
+    }
+
+    public boolean contains(String attr) {
+        return attributesToGet.contains(attr);
+    }
+
+    /**
+     * @param attr Attribute name
+     * @return <code>true</code> if the attribute is requested and has to be fetched completely
+     */
+    public boolean shouldSaturate(String attr) {
+        return !allowPartialAttributeValues && attributesToGet.contains(attr);
+    }
+
+    /**
+     * @param attr Attribute name
+     * @return <code>true</code> if the attribute is requested but may be returned incomplete
+     */
+    public boolean isIncomplete(String attr) {
+        return allowPartialAttributeValues && attributesToGet.contains(attr);
+    }
+
+    /**
+     * Create a selector clause for the given attributes, narrowed to the requested attributes.
+     *
+     * @param postMapper  Post-mapper of the object class, translates requested ICF attributes
+     * @param attrs       Candidate attributes to select
+     * @param identifiers Attributes selected regardless of the requested ones
+     * @return Selector clause
+     */
+    public String selector(ICFPostMapper postMapper, String[] attrs, String... identifiers) {
+        final SelectorKey key = new SelectorKey(attrs, identifiers);
+
+        String selector = selectorCache.get(key);
+        if (selector == null) {
+            Set<String> targetAttributes = new HashSet<>();
+            for (String attr : attributesToGet) {
+                String target = postMapper.getTarget(attr);
+                if (target != null) {
+                    targetAttributes.add(target);
+                }
+            }
+
+            Set<String> selected = new LinkedHashSet<>(Arrays.asList(identifiers));
+            selected.addAll(Arrays.asList(SchemaTranslator.filter(targetAttributes, attrs)));
+            selector = ObjectProcessing.selector(selected.toArray(new String[0]));
+
+            if (selectorCache.size() >= SELECTOR_CACHE_SIZE) {
+                selectorCache.clear();
+            }
+            selectorCache.put(key, selector);
+        }
+        return selector;
+    }
+
+    private static final class SelectorKey {
+        private final String[] attrs;
+        private final String[] identifiers;
+        private final int hash;
+
+        private SelectorKey(String[] attrs, String[] identifiers) {
+            this.attrs = attrs;
+            this.identifiers = identifiers;
+            this.hash = 31 * Arrays.hashCode(attrs) + Arrays.hashCode(identifiers);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SelectorKey)) return false;
+            SelectorKey that = (SelectorKey) o;
+            return Arrays.equals(attrs, that.attrs) && Arrays.equals(identifiers, that.identifiers);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
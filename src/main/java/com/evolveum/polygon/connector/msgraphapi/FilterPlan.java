@@ -0,0 +1,250 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.AndFilter;
+import org.identityconnectors.framework.common.objects.filter.AttributeFilter;
+import org.identityconnectors.framework.common.objects.filter.CompositeFilter;
+import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
+import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
+import org.identityconnectors.framework.common.objects.filter.EndsWithFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.common.objects.filter.GreaterThanFilter;
+import org.identityconnectors.framework.common.objects.filter.GreaterThanOrEqualFilter;
+import org.identityconnectors.framework.common.objects.filter.LessThanFilter;
+import org.identityconnectors.framework.common.objects.filter.LessThanOrEqualFilter;
+import org.identityconnectors.framework.common.objects.filter.NotFilter;
+import org.identityconnectors.framework.common.objects.filter.OrFilter;
+import org.identityconnectors.framework.common.objects.filter.StartsWithFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static com.evolveum.polygon.connector.msgraphapi.ObjectProcessing.LOG;
+
+/**
+ * Split of a search filter into the part sent to Graph and the residual part evaluated on the returned objects.
+ * <p>
+ * The conjuncts of an AND filter are pushed to Graph as long as the pushed filter stays supported, the others
+ * form the residual filter. Any other filter is either pushed or evaluated as a whole. The residual filter is
+ * evaluated by ConnId on each converted object as it is handed to the results handler, so the objects are
+ * still streamed. Attributes of the residual filter are fetched even if not requested and removed from the objects
+ * again after the evaluation.
+ */
+class FilterPlan {
+
+    private final Filter pushed;
+    private final Filter residual;
+    private final Set<String> residualAttributes;
+
+    private FilterPlan(Filter pushed, Filter residual) {
+        this.pushed = pushed;
+        this.residual = residual;
+        this.residualAttributes = new LinkedHashSet<>();
+        if (residual != null) {
+            collectAttributes(residual, residualAttributes);
+        }
+    }
+
+    /**
+     * @param filter    Search filter, may be <code>null</code>
+     * @param supported Whether a filter can be sent to Graph
+     * @return Plan of the search
+     */
+    static FilterPlan split(Filter filter, Predicate<Filter> supported) {
+        if (filter == null || supported.test(filter)) {
+            return new FilterPlan(filter, null);
+        }
+
+        if (!(filter instanceof AndFilter)) {
+            LOG.ok("Filter {0} is evaluated by the connector", filter);
+            return new FilterPlan(null, filter);
+        }
+
+        final List<Filter> conjuncts = new ArrayList<>();
+        collectConjuncts(filter, conjuncts);
+
+        final List<Filter> pushedConjuncts = new ArrayList<>();
+        final List<Filter> residualConjuncts = new ArrayList<>();
+        for (Filter conjunct : conjuncts) {
+            pushedConjuncts.add(conjunct);
+            if (!supported.test(and(pushedConjuncts))) {
+                pushedConjuncts.remove(pushedConjuncts.size() - 1);
+                residualConjuncts.add(conjunct);
+            }
+        }
+
+        final FilterPlan plan = new FilterPlan(and(pushedConjuncts), and(residualConjuncts));
+        LOG.ok("Filter {0} is sent as {1} and {2} is evaluated by the connector", filter, plan.pushed, plan.residual);
+        return plan;
+    }
+
+    /**
+     * Whether a filter can be translated by the filter handler to a query Graph evaluates the same way.
+     * A contains filter is translated to a search, which cannot be combined with OR and NOT, and only
+     * a single one can be a conjunct of the top AND filter. The same applies to the membership filter.
+     *
+     * @param filter             Filter
+     * @param endsWithAttributes Attributes Graph supports the endsWith function for
+     * @return <code>true</code> if the filter can be sent to Graph
+     */
+    static boolean isTranslatable(Filter filter, Set<String> endsWithAttributes) {
+        if (filter instanceof ContainsFilter || filter instanceof ContainsAllValuesFilter) {
+            return true;
+        }
+
+        if (filter instanceof AndFilter) {
+            int searches = 0;
+            int memberships = 0;
+            for (Filter conjunct : ((AndFilter) filter).getFilters()) {
+                if (conjunct instanceof ContainsFilter) {
+                    searches++;
+                } else if (conjunct instanceof ContainsAllValuesFilter) {
+                    memberships++;
+                } else if (!isPlainTranslatable(conjunct, endsWithAttributes)) {
+                    return false;
+                }
+            }
+            return searches <= 1 && memberships <= 1;
+        }
+
+        return isPlainTranslatable(filter, endsWithAttributes);
+    }
+
+    private static boolean isPlainTranslatable(Filter filter, Set<String> endsWithAttributes) {
+        if (filter instanceof CompositeFilter) {
+            for (Filter child : ((CompositeFilter) filter).getFilters()) {
+                if (!isPlainTranslatable(child, endsWithAttributes)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (filter instanceof NotFilter) {
+            return isPlainTranslatable(((NotFilter) filter).getFilter(), endsWithAttributes);
+        }
+
+        if (filter instanceof EndsWithFilter) {
+            return endsWithAttributes.contains(((EndsWithFilter) filter).getName());
+        }
+
+        return filter instanceof EqualsFilter
+                || filter instanceof GreaterThanFilter || filter instanceof GreaterThanOrEqualFilter
+                || filter instanceof LessThanFilter || filter instanceof LessThanOrEqualFilter
+                || filter instanceof StartsWithFilter;
+    }
+
+    /**
+     * @return Filter to send to Graph, <code>null</code> to list all objects
+     */
+    Filter getPushed() {
+        return pushed;
+    }
+
+    /**
+     * @return Filter to evaluate on the listed objects, <code>null</code> if Graph evaluates the whole filter
+     */
+    Filter getResidual() {
+        return residual;
+    }
+
+    /**
+     * @param options Operation options of the search
+     * @return Options which request the attributes of the residual filter as well
+     */
+    OperationOptions searchOptions(OperationOptions options) {
+        if (residual == null || residualAttributes.isEmpty()) {
+            return options;
+        }
+
+        final OperationOptionsBuilder builder = new OperationOptionsBuilder(options);
+        final String[] attributesToGet = options.getAttributesToGet();
+        final Set<String> attributes = new LinkedHashSet<>();
+        if (attributesToGet != null) {
+            attributes.addAll(Arrays.asList(attributesToGet));
+        } else {
+            builder.setReturnDefaultAttributes(true);
+        }
+        attributes.addAll(residualAttributes);
+        builder.setAttributesToGet(attributes);
+        return builder.build();
+    }
+
+    /**
+     * @param handler   Results handler of the search
+     * @param requested Attributes requested by the search options
+     * @return Handler which passes only objects matching the residual filter, without attributes which were
+     * fetched just for the evaluation
+     */
+    ResultsHandler resultsHandler(ResultsHandler handler, Set<String> requested) {
+        if (residual == null) {
+            return handler;
+        }
+
+        final Set<String> added = new LinkedHashSet<>(residualAttributes);
+        added.removeAll(requested);
+        added.remove(Uid.NAME);
+        added.remove(Name.NAME);
+
+        return connectorObject -> {
+            if (!residual.accept(connectorObject)) {
+                return true;
+            }
+            return handler.handle(added.isEmpty() ? connectorObject : strip(connectorObject, added));
+        };
+    }
+
+    private static ConnectorObject strip(ConnectorObject connectorObject, Set<String> attributes) {
+        final ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setObjectClass(connectorObject.getObjectClass());
+        for (Attribute attribute : connectorObject.getAttributes()) {
+            if (!attributes.contains(attribute.getName())) {
+                builder.addAttribute(attribute);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void collectConjuncts(Filter filter, List<Filter> conjuncts) {
+        if (filter instanceof AndFilter) {
+            for (Filter conjunct : ((AndFilter) filter).getFilters()) {
+                collectConjuncts(conjunct, conjuncts);
+            }
+        } else {
+            conjuncts.add(filter);
+        }
+    }
+
+    private static void collectAttributes(Filter filter, Set<String> attributes) {
+        if (filter instanceof CompositeFilter) {
+            for (Filter child : ((CompositeFilter) filter).getFilters()) {
+                collectAttributes(child, attributes);
+            }
+        } else if (filter instanceof NotFilter) {
+            collectAttributes(((NotFilter) filter).getFilter(), attributes);
+        } else if (filter instanceof AttributeFilter) {
+            attributes.add(((AttributeFilter) filter).getName());
+        }
+    }
+
+    private static Filter and(Collection<Filter> filters) {
+        if (filters.isEmpty()) {
+            return null;
+        }
+        return filters.size() == 1 ? filters.iterator().next() : FilterBuilder.and(filters);
+    }
+}
@@ -1,6 +1,7 @@
 package com.evolveum.polygon.connector.msgraphapi;
 
 import com.evolveum.polygon.common.GuardedStringAccessor;
+import com.evolveum.polygon.connector.msgraphapi.util.FilterNormalizer;
 import com.evolveum.polygon.connector.msgraphapi.util.PolyTrustManager;
 import com.microsoft.aad.adal4j.AsymmetricKeyCredential;
 import com.microsoft.aad.adal4j.AuthenticationContext;
@@ -34,6 +35,7 @@ import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.*;
 import java.security.cert.CertificateException;
@@ -42,6 +44,8 @@ import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -59,20 +63,39 @@ public class GraphEndpoint {
     private final static String API_ENDPOINT = "graph.microsoft.com/v1.0";
     private final static String AUTHORITY = "https://login.microsoftonline.com/";
     private final static String RESOURCE = "https://graph.microsoft.com";
+    // Graph returns at most this many objects in a response
+    private static final int MAX_TOP = 999;
+    private static final String GET_BY_IDS = "/directoryObjects/getByIds";
+    // ids of a single getByIds request
+    static final int GET_BY_IDS_MAX = 1000;
+    private static final String BATCH = "/$batch";
+    // requests of a single JSON batch
+    static final int BATCH_MAX = 20;
     //private static final int MAX_THROTTLING_RETRY_COUNT = 3;
 
     private final MSGraphConfiguration configuration;
     private final URIBuilder uriBuilder;
     private AuthenticationResult authenticateResult;
     private SchemaTranslator schemaTranslator;
+    private final FilterNormalizer filterNormalizer = new FilterNormalizer();
     private CloseableHttpClient httpClient;
-    private Boolean throttling = false;
+    // shared by all threads using the endpoint, requests wait until the API accepts calls again
+    private volatile long throttledUntil;
     //private final long MAX_THROTTLING_REPLY_TIME = TimeUnit.SECONDS.toMillis(10);
 
     private final long SKEW = TimeUnit.MINUTES.toMillis(5);
 
     private Boolean validateWithCustomAndDefaultTrust = false;
 
+    private MembershipIndex membershipIndex;
+
+    private RoleDefinitionCache roleDefinitionCache;
+
+    // time until which the role definitions are known to be too many to cache
+    private long roleDefinitionCacheSkippedUntil;
+
+    private LicenseCatalog licenseCatalog;
+
     GraphEndpoint(MSGraphConfiguration configuration) {
 
         this(configuration,false);
@@ -97,6 +120,70 @@ public class GraphEndpoint {
         return schemaTranslator;
     }
 
+    public FilterNormalizer getFilterNormalizer() {
+        return filterNormalizer;
+    }
+
+    /**
+     * Get the group membership index, building it if there is none, it expired or it lacks ownership.
+     *
+     * @param withOwners Whether group ownership has to be indexed as well
+     * @return Complete index or <code>null</code> if the tenant exceeds the configured index size
+     */
+    synchronized MembershipIndex getMembershipIndex(boolean withOwners) {
+        final long now = System.currentTimeMillis();
+        if (membershipIndex == null || membershipIndex.isExpired(now) || (withOwners && !membershipIndex.hasOwners())) {
+            membershipIndex = MembershipIndex.build(this, withOwners, configuration.getMembershipIndexMaxSize(),
+                    now + TimeUnit.SECONDS.toMillis(configuration.getMembershipIndexLifetime()));
+        }
+        return membershipIndex.isComplete() ? membershipIndex : null;
+    }
+
+    synchronized void invalidateMembershipIndex() {
+        membershipIndex = null;
+    }
+
+    /**
+     * Get the role definition cache, loading it if there is none or it expired. If the tenant has too many role
+     * definitions, no cache is loaded for the lifetime of a cache.
+     *
+     * @return Cache or <code>null</code> if caching is disabled or the tenant has too many role definitions
+     */
+    synchronized RoleDefinitionCache getRoleDefinitionCache() {
+        final Integer lifetime = configuration.getRoleCacheLifetime();
+        if (lifetime == null || lifetime <= 0) {
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now < roleDefinitionCacheSkippedUntil) {
+            return null;
+        }
+        if (roleDefinitionCache == null || roleDefinitionCache.isExpired(now)) {
+            final long expiresAt = now + TimeUnit.SECONDS.toMillis(lifetime);
+            roleDefinitionCache = RoleDefinitionCache.build(this, configuration.getRoleCacheMaxSize(), expiresAt);
+            if (roleDefinitionCache == null) {
+                // don't list all role definitions again on every query until the cache would have expired
+                roleDefinitionCacheSkippedUntil = expiresAt;
+            }
+        }
+        return roleDefinitionCache;
+    }
+
+    synchronized void invalidateRoleDefinitionCache() {
+        roleDefinitionCache = null;
+        roleDefinitionCacheSkippedUntil = 0;
+    }
+
+    synchronized LicenseCatalog getLicenseCatalog() {
+        if (licenseCatalog == null) {
+            final Integer lifetime = configuration.getLicenseCacheLifetime();
+            licenseCatalog = new LicenseCatalog(configuration.getDisabledPlans(),
+                    lifetime != null ? TimeUnit.SECONDS.toMillis(lifetime) : 0);
+        }
+        return licenseCatalog;
+    }
+
     protected void authenticate() {
         AuthenticationResult result = null;
         ExecutorService service = null;
@@ -255,10 +342,17 @@ public class GraphEndpoint {
                 }));
         }
 
+        // saturation workers, the listing thread and chunks of a split query use connections at the same time
+        final Integer saturationThreads = configuration.getSaturationThreads();
+        final int connections = (saturationThreads != null && saturationThreads > 1 ? saturationThreads : 0)
+                + ObjectProcessing.QUERY_CHUNK_THREADS + 1;
+        clientBuilder.setMaxConnPerRoute(connections);
+        clientBuilder.setMaxConnTotal(connections);
+
         httpClient = clientBuilder.build();
     }
 
-    private AuthenticationResult getAccessToken() {
+    private synchronized AuthenticationResult getAccessToken() {
         if (authenticateResult.getExpiresOnDate().getTime() - SKEW < new Date().getTime()) {
             // Expired, re-authenticate
             authenticate();
@@ -342,10 +436,11 @@ public class GraphEndpoint {
         CloseableHttpResponse response;
         int retryCount = 0;
         try {
+            awaitThrottling();
             response = httpClient.execute(request);
             LOG.info("response {0}", response);
-            throttling = false;
             processResponseErrors(response);
+            boolean throttling = isThrottled(response);
             while (throttling) {
                 throttling = false;
                 LOG.ok("Current retry count: {0}", retryCount);
@@ -368,11 +463,13 @@ public class GraphEndpoint {
 
                                     throw new ConnectorException("Max time for request throttling exceeded! Request was not successful");
                                 }
-                                Thread.sleep(retryAfter);
+                                throttle(retryAfter);
+                                awaitThrottling();
                                 LOG.ok("Throttling retry");
 
                                 response = httpClient.execute(request);
                                 processResponseErrors(response);
+                                throttling = isThrottled(response);
                             }
                         }
                     }
@@ -389,12 +486,27 @@ public class GraphEndpoint {
             if (e instanceof IOException) {
                 throw new ConnectorIOException(sb.toString(), e);
             } else {
-
+                Thread.currentThread().interrupt();
                 throw new ConnectorException(sb.toString(), e);
             }
         }
     }
 
+    private boolean isThrottled(CloseableHttpResponse response) {
+        return response.getStatusLine().getStatusCode() == 429;
+    }
+
+    private synchronized void throttle(long retryAfter) {
+        throttledUntil = Math.max(throttledUntil, System.currentTimeMillis() + retryAfter);
+    }
+
+    private void awaitThrottling() throws InterruptedException {
+        final long wait = throttledUntil - System.currentTimeMillis();
+        if (wait > 0) {
+            LOG.ok("Waiting {0} ms for the API call limit", wait);
+            Thread.sleep(wait);
+        }
+    }
 
     public void processResponseErrors(CloseableHttpResponse response) {
         if (response == null) {
@@ -471,7 +583,6 @@ public class GraphEndpoint {
         }
         if (statusCode == 429) {
             LOG.warn("Request returned with status code 429 which means an api call limit was reached.");
-            throttling = true;
             return;
         }
 
@@ -593,6 +704,39 @@ public class GraphEndpoint {
         }
     }
 
+    /**
+     * Post a JSON body to a resource which reads objects, e.g. <code>getByIds</code>. Unlike the responses of
+     * create and update requests, the response is decoded the same way as responses of GET requests.
+     *
+     * @param request Request
+     * @param json    Body of the request
+     * @return Parsed response, <code>null</code> if there is none
+     */
+    protected JSONObject callReadRequest(HttpEntityEnclosingRequestBase request, JSONObject json) {
+        LOG.info("request URI: {0}", request.getURI());
+        request.setEntity(new ByteArrayEntity(json.toString().getBytes(StandardCharsets.UTF_8)));
+        // errors of the response are processed by executeRequest
+        try (CloseableHttpResponse response = executeRequest(request)) {
+            return readJSONResponse(response.getEntity());
+        } catch (IOException e) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Failed reading the response of: ").append(request).append(";").append(e.getLocalizedMessage());
+            throw new ConnectorIOException(sb.toString(), e);
+        }
+    }
+
+    /**
+     * @param entity Response entity
+     * @return Parsed JSON of the entity decoded by the charset of its content type, UTF-8 by default as Graph
+     * sends JSON, <code>null</code> if there is no entity
+     */
+    static JSONObject readJSONResponse(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return null;
+        }
+        return new JSONObject(EntityUtils.toString(entity, StandardCharsets.UTF_8));
+    }
+
 
     private void responseClose(CloseableHttpResponse response) {
         try {
@@ -640,7 +784,54 @@ public class GraphEndpoint {
     // If the resource indicated by the "path" argument does not support paging, the "paging" argument must be false
     protected void executeListRequest(String path, String customQuery, OperationOptions options,
                                       boolean paging, ObjectProcessing.JSONObjectHandler handler) {
+        executeListRequest(path, customQuery, options, paging, 0, handler);
+    }
+
+    /**
+     * List the objects of a resource, following <code>@odata.nextLink</code>. Pages are prefetched on a separate
+     * thread only if asked for, which is meant for the top-level listing of a search, not for the many small
+     * listings done per object.
+     *
+     * @param path        Resource path
+     * @param customQuery Query of the request
+     * @param options     Operation options
+     * @param paging      Whether the resource supports paging
+     * @param prefetch    Number of pages fetched ahead of the handler, see {@link PageReader}
+     * @param handler     Handler of the listed objects
+     */
+    protected void executeListRequest(String path, String customQuery, OperationOptions options,
+                                      boolean paging, int prefetch, ObjectProcessing.JSONObjectHandler handler) {
         LOG.info("executeGetRequest path {0}, customQuery {1}, options: {2}", path, customQuery, options);
+        final URI uri = createListURI(path, customQuery, paging ? configuration.getPageSize() : null);
+
+        // Handle paging if the response contains @odata.nextLink
+        int objects = 0;
+        long handleNanos = 0;
+        try (PageReader pages = new PageReader(this, uri, paging ? prefetch : 0)) {
+            JSONObject response;
+            boolean proceed = true;
+            while (proceed && (response = pages.next()) != null) {
+                if (hasJSONArray(response)) {
+                    LOG.info("response: {0} ", response);
+                    JSONArray jsonArray = getJSONArray(response);
+                    final long start = System.nanoTime();
+                    for (int i = 0; proceed && i < jsonArray.length(); i++) {
+                        objects++;
+                        proceed = handler.handle(options, jsonArray.getJSONObject(i));
+                    }
+                    handleNanos += System.nanoTime() - start;
+                } else {
+                    LOG.info("nextLinkJson contained no value object or the object was null");
+                }
+            }
+
+            LOG.ok("Listed {0} objects of {1} in {2} pages, fetch {3} ms, waiting for pages {4} ms, handling {5} ms",
+                    objects, path, pages.getPages(), pages.getFetchMillis(), pages.getWaitMillis(),
+                    TimeUnit.NANOSECONDS.toMillis(handleNanos));
+        }
+    }
+
+    private URI createListURI(String path, String customQuery, String top) {
         final URIBuilder uribuilder = createURIBuilder().setPath(path);
 
         StringBuilder query = new StringBuilder();
@@ -648,16 +839,13 @@ public class GraphEndpoint {
             query.append(customQuery);
         }
 
-        if (paging) {
-            String pageSize = configuration.getPageSize();
-            if (StringUtil.isNotBlank(pageSize)) {
-                if (customQuery != null) {
-                    query.append("&");
-                }
-                query.append(TOP);
-                query.append("=");
-                query.append(pageSize);
+        if (StringUtil.isNotBlank(top)) {
+            if (customQuery != null) {
+                query.append("&");
             }
+            query.append(TOP);
+            query.append("=");
+            query.append(top);
         }
 
         if (query.length() > 0) {
@@ -665,43 +853,178 @@ public class GraphEndpoint {
             LOG.ok("setCustomQuery {0}", uribuilder);
         }
 
-        URI uri;
         try {
-            uri = uribuilder.build();
+            return uribuilder.build();
         } catch (URISyntaxException e) {
             StringBuilder sb = new StringBuilder();
             sb.append("It was not possible create URI from UriBuilder:").append(uriBuilder).append(";")
                     .append(e.getLocalizedMessage());
             throw new ConnectorException(sb.toString(), e);
         }
+    }
 
-        // Handle paging if the response contains @odata.nextLink
-        do {
-            HttpRequestBase request = new HttpGet(uri);
-            LOG.info("request {0}", request);
+    /**
+     * Count objects by the $count segment of a resource path.
+     *
+     * @param path        Resource path
+     * @param customQuery Filter or search of the counted objects, may be <code>null</code>
+     * @return Number of objects
+     */
+    protected int executeCountRequest(String path, String customQuery) {
+        LOG.info("executeCountRequest path {0}, customQuery {1}", path, customQuery);
+        final HttpGet request = new HttpGet(createListURI(path + "/$count", customQuery, null));
 
-            final JSONObject response = callRequest(request, true);
+        try (CloseableHttpResponse response = executeRequest(request)) {
+            final String count = EntityUtils.toString(response.getEntity()).trim();
+            LOG.ok("Counted {0} objects of {1}", count, path);
+            return Integer.parseInt(count);
+        } catch (IOException e) {
+            throw new ConnectorIOException();
+        } catch (NumberFormatException e) {
+            throw new ConnectorException("Unexpected response of the count of " + path + ": " + e.getMessage(), e);
+        }
+    }
 
-            if (hasNextLink(response)) {
-                String nextLink = getNextLink(response);
-                LOG.info("nextLink: {0}", nextLink);
-                uri = URI.create(nextLink);
-            } else {
-                LOG.info("No nextLink defined, final page");
-                uri = null;
-            }
-            if (hasJSONArray(response)) {
-                LOG.info("response: {0} ", response);
-                JSONArray jsonArray = getJSONArray(response);
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    if (!handler.handle(options, jsonArray.getJSONObject(i))) {
-                        return;
+    /**
+     * Links coming from the caller, such as page cookies and sync tokens, are requested with the access token,
+     * which must not leave Graph.
+     *
+     * @param link Link to request
+     * @return <code>true</code> if the link points to Graph
+     */
+    boolean isGraphLink(String link) {
+        return link != null && link.startsWith(RESOURCE + "/");
+    }
+
+    /**
+     * Execute GET requests in a single JSON batch.
+     *
+     * @param urls At most {@link #BATCH_MAX} URLs relative to the API version, e.g. <code>/users/{id}</code>
+     * @return Responses in the order of the URLs, with the <code>status</code> and the <code>body</code>, an element
+     * is <code>null</code> if Graph returned no response for its URL
+     */
+    protected List<JSONObject> executeBatchRequest(List<String> urls) {
+        LOG.info("executeBatchRequest of {0} requests", urls.size());
+        final JSONArray requests = new JSONArray();
+        for (int i = 0; i < urls.size(); i++) {
+            requests.put(new JSONObject()
+                    .put("id", String.valueOf(i))
+                    .put("method", "GET")
+                    .put("url", urls.get(i)));
+        }
+
+        final JSONObject response = callReadRequest(new HttpPost(getUri(createURIBuilder().setPath(BATCH))),
+                new JSONObject().put("requests", requests));
+
+        final List<JSONObject> responses = new ArrayList<>(Collections.nCopies(urls.size(), (JSONObject) null));
+        final JSONArray value = response != null ? response.optJSONArray("responses") : null;
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                final JSONObject item = value.getJSONObject(i);
+                try {
+                    final int index = Integer.parseInt(item.optString("id"));
+                    if (index >= 0 && index < responses.size()) {
+                        responses.set(index, item);
                     }
+                } catch (NumberFormatException e) {
+                    LOG.warn("Unexpected batch response id {0}", item.opt("id"));
                 }
-            } else {
-                LOG.info("nextLinkJson contained no value object or the object was null");
             }
-        } while (uri != null);
+        }
+        return responses;
+    }
+
+    /**
+     * Get directory objects by their ids. Ids of objects which do not exist or are not of the type are skipped.
+     *
+     * @param ids         At most {@link #GET_BY_IDS_MAX} ids
+     * @param type        Type of the objects, e.g. <code>user</code>
+     * @param customQuery Query of the request, may be <code>null</code>
+     * @return The found objects
+     */
+    protected JSONArray executeGetByIdsRequest(Collection<String> ids, String type, String customQuery) {
+        LOG.info("executeGetByIdsRequest {0} ids of the type {1}, customQuery {2}", ids.size(), type, customQuery);
+        final URIBuilder uriBuilder = createURIBuilder().setPath(GET_BY_IDS);
+        if (customQuery != null) {
+            uriBuilder.setCustomQuery(customQuery);
+        }
+
+        final JSONObject body = new JSONObject()
+                .put("ids", new JSONArray(ids))
+                .put("types", new JSONArray().put(type));
+        final JSONObject response = callReadRequest(new HttpPost(getUri(uriBuilder)), body);
+        return response == null || !response.has("value") ? new JSONArray() : response.getJSONArray("value");
+    }
+
+    /**
+     * List a single page of objects for a paged search. The page is read from the page cookie if there is one,
+     * otherwise the objects before the paged results offset are skipped.
+     * <p>
+     * The cookie of the next page is the <code>@odata.nextLink</code> of the last response. If the page ends in
+     * the middle of a response, the cookie is the link of that response prefixed with the number of its objects
+     * to skip, <code>skip|link</code>.
+     *
+     * @param path        Resource path, it must support paging
+     * @param customQuery Query of the request
+     * @param options     Operation options with the page size
+     * @param handler     Handler of the objects
+     * @return Cookie of the next page, <code>null</code> if there are no more objects
+     */
+    protected String executePagedListRequest(String path, String customQuery, OperationOptions options,
+                                             ObjectProcessing.JSONObjectHandler handler) {
+        LOG.info("executePagedListRequest path {0}, customQuery {1}, options: {2}", path, customQuery, options);
+        final int pageSize = options.getPageSize();
+        final String cookie = options.getPagedResultsCookie();
+
+        URI uri;
+        int skip;
+        if (cookie != null) {
+            final int separator = cookie.indexOf('|');
+            try {
+                skip = separator > 0 ? Integer.parseInt(cookie.substring(0, separator)) : 0;
+            } catch (NumberFormatException e) {
+                throw new InvalidAttributeValueException("Invalid paged results cookie: " + cookie, e);
+            }
+            final String link = cookie.substring(separator + 1);
+            // the cookie comes from the caller, the access token must not leave Graph
+            if (!isGraphLink(link)) {
+                throw new InvalidAttributeValueException("Invalid paged results cookie: " + cookie);
+            }
+            uri = URI.create(link);
+        } else {
+            final Integer offset = options.getPagedResultsOffset();
+            skip = offset != null && offset > 1 ? offset - 1 : 0;
+            uri = createListURI(path, customQuery, String.valueOf(Math.min(pageSize + skip, MAX_TOP)));
+        }
+
+        int handled = 0;
+        while (uri != null) {
+            final JSONObject response = callRequest(new HttpGet(uri), true);
+            final JSONArray value = hasJSONArray(response) ? getJSONArray(response) : new JSONArray();
+            final URI next = hasNextLink(response) ? URI.create(getNextLink(response)) : null;
+
+            for (int i = 0; i < value.length(); i++) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (handled == pageSize || !handler.handle(options, value.getJSONObject(i))) {
+                    final int resumeAt = handled == pageSize ? i : i + 1;
+                    LOG.ok("Paged search of {0} stopped after {1} objects within a page", path, handled);
+                    return resumeAt < value.length() ? resumeAt + "|" + uri : next != null ? next.toString() : null;
+                }
+                handled++;
+            }
+
+            if (handled == pageSize) {
+                LOG.ok("Paged search of {0} returned a page of {1} objects", path, handled);
+                return next != null ? next.toString() : null;
+            }
+            uri = next;
+        }
+
+        LOG.ok("Paged search of {0} returned the last {1} objects", path, handled);
+        return null;
     }
 
     private boolean hasJSONArray(JSONObject object) {
@@ -712,11 +1035,11 @@ public class GraphEndpoint {
         return object.getJSONArray("value");
     }
 
-    private boolean hasNextLink(JSONObject object) {
+    boolean hasNextLink(JSONObject object) {
         return object.has("@odata.nextLink") && object.getString("@odata.nextLink") != null && !object.getString("@odata.nextLink").isEmpty();
     }
 
-    private String getNextLink(JSONObject object) {
+    String getNextLink(JSONObject object) {
         return object.getString("@odata.nextLink");
     }
 
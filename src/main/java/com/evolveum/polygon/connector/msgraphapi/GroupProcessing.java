@@ -5,13 +5,17 @@ import org.apache.http.client.methods.*;
 import org.apache.http.client.utils.URIBuilder;
 import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.*;
+import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -21,6 +25,8 @@ public class GroupProcessing extends ObjectProcessing {
 
     private final static String GROUPS = "/groups";
     private final static String USERS = "/users";
+    // type of groups in directoryObjects/getByIds
+    private static final String GRAPH_TYPE_GROUP = "group";
 
     private static final String ATTR_ALLOWEXTERNALSENDERS = "allowExternalSenders";
     private static final String ATTR_AUTOSUBSCRIBENEWMEMBERS = "autoSubscribeNewMembers";
@@ -40,6 +46,10 @@ public class GroupProcessing extends ObjectProcessing {
     private static final String ATTR_ONPREMISESSECURITYIDENTIFIER = "onPremisesSecurityIdentifier";
     private static final String ATTR_ONPREMISESSYNCENABLED = "onPremisesSyncEnabled";
     private static final String ATTR_PROXYADDRESSES = "proxyAddresses";
+    // Graph supports $orderby for these attributes only
+    private static final Set<String> SORTABLE_ATTRS = Collections.singleton(ATTR_DISPLAYNAME);
+    // Graph supports endsWith for these attributes only
+    private static final Set<String> ENDS_WITH_ATTRS = new HashSet<>(Arrays.asList(ATTR_MAIL, ATTR_PROXYADDRESSES));
     private static final String ATTR_SECURITYENABLED = "securityEnabled";
     private static final String ATTR_UNSEENCOUNT = "unseenCount";
     private static final String ATTR_VISIBILITY = "visibility";
@@ -55,6 +65,25 @@ public class GroupProcessing extends ObjectProcessing {
             ATTR_GROUPTYPES
     ).collect(Collectors.toSet());
 
+    // allowExternalSenders, autoSubscribeNewMembers, isSubscribedByMail and unseenCount are supported on single
+    // group GET with delegated permissions only, selecting them in a list request fails
+    private static final String[] LIST_ATTRS = {
+            ATTR_ID, ATTR_DISPLAYNAME, ATTR_DESCRIPTION, ATTR_GROUPTYPES, ATTR_MEMBERSHIPRULE,
+            ATTR_MEMBERSHIPRULEPROCESSINGSTATE, ATTR_MAIL, ATTR_MAILENABLED, ATTR_MAILNICKNAME,
+            ATTR_ONPREMISESLASTSYNCDATETIME, ATTR_ONPREMISESSECURITYIDENTIFIER, ATTR_ONPREMISESSYNCENABLED,
+            ATTR_PROXYADDRESSES, ATTR_SECURITYENABLED, ATTR_VISIBILITY, ATTR_CREATEDDATETIME, ATTR_CLASSIFICATION
+    };
+
+    private static final JSONObjectMapper GROUP_MAPPER = JSONObjectMapper.builder()
+            .single(String.class, ATTR_DISPLAYNAME, ATTR_DESCRIPTION, ATTR_MEMBERSHIPRULE,
+                    ATTR_MEMBERSHIPRULEPROCESSINGSTATE, ATTR_MAIL, ATTR_MAILNICKNAME, ATTR_ONPREMISESLASTSYNCDATETIME,
+                    ATTR_ONPREMISESSECURITYIDENTIFIER, ATTR_VISIBILITY, ATTR_CREATEDDATETIME, ATTR_CLASSIFICATION)
+            .single(Boolean.class, ATTR_MAILENABLED, ATTR_ONPREMISESSYNCENABLED, ATTR_SECURITYENABLED,
+                    ATTR_ALLOWEXTERNALSENDERS, ATTR_AUTOSUBSCRIBENEWMEMBERS, ATTR_ISSUBSCRIBEDBYMAIL)
+            .single(Integer.class, ATTR_UNSEENCOUNT)
+            .multi(ATTR_GROUPTYPES, ATTR_PROXYADDRESSES, ATTR_MEMBERS, ATTR_OWNERS)
+            .build();
+
     public GroupProcessing(GraphEndpoint graphEndpoint) {
         super(graphEndpoint, ICFPostMapper.builder().build());
     }
@@ -69,6 +98,21 @@ public class GroupProcessing extends ObjectProcessing {
         return ObjectClass.GROUP_NAME;
     }
 
+    @Override
+    protected boolean isSupportedFilter(Filter filter) {
+        return FilterPlan.isTranslatable(filter, ENDS_WITH_ATTRS);
+    }
+
+    @Override
+    protected boolean isCountSupported() {
+        return true;
+    }
+
+    @Override
+    protected Set<String> getMergedDeltaProperties() {
+        return Collections.singleton(ATTR_MEMBERS + O_DELTA);
+    }
+
     @Override
     protected ObjectClassInfo objectClassInfo() {
         ObjectClassInfoBuilder groupObjClassBuilder = new ObjectClassInfoBuilder();
@@ -316,6 +360,7 @@ public class GroupProcessing extends ObjectProcessing {
         if (endpoint.callRequest(request, false) == null) {
             LOG.info("Deleted group with Uid {0}", uid.getUidValue());
         }
+        endpoint.invalidateMembershipIndex();
 
     }
 
@@ -325,6 +370,7 @@ public class GroupProcessing extends ObjectProcessing {
         }
 
         LOG.info("addOrRemoveMember {0} , {1} , {2}", uid, attrDelta, path);
+        getGraphEndpoint().invalidateMembershipIndex();
         StringBuilder sbPath = new StringBuilder();
         sbPath.append(path).append("/").append(uid.getUidValue()).append("/" + ATTR_MEMBERS);
 
@@ -359,6 +405,7 @@ public class GroupProcessing extends ObjectProcessing {
         }
 
         LOG.info("add owner to group or remove ");
+        getGraphEndpoint().invalidateMembershipIndex();
         StringBuilder sbPath = new StringBuilder();
         sbPath.append(path).append("/").append(uid.getUidValue()).append("/" + ATTR_OWNERS);
 
@@ -432,9 +479,23 @@ public class GroupProcessing extends ObjectProcessing {
     }
 
 
+    /**
+     * Search groups by a list of their ids, see {@link #toUidValues(Filter)}.
+     *
+     * @param ids     Ids of the groups
+     * @param handler Results handler
+     * @param options Operation options
+     */
+    public void executeQueryForGroupByIds(List<String> ids, ResultsHandler handler, OperationOptions options) {
+        LOG.info("executeQueryForGroupByIds(), {0} ids", ids.size());
+        listObjectsByIds(GRAPH_TYPE_GROUP, ids, projectedSelector(options, LIST_ATTRS, ATTR_ID, ATTR_DISPLAYNAME),
+                options, handler);
+    }
+
     public void executeQueryForGroup(ResourceQuery translatedQuery, Boolean fetchSpecific, ResultsHandler handler, OperationOptions options) {
         LOG.ok("Processing executeQuery operation for the objectClass {0}", ObjectClass.GROUP_NAME);
         final GraphEndpoint endpoint = getGraphEndpoint();
+        final String selectorList = projectedSelector(options, LIST_ATTRS, ATTR_ID, ATTR_DISPLAYNAME);
 
         String query = null;
         Boolean fetchAll = false;
@@ -476,22 +537,70 @@ public class GroupProcessing extends ObjectProcessing {
                 if (translatedQuery.hasIdOrMembershipExpression()) {
 
                     LOG.ok("The constructed filter to be used: {0}", query);
-                    endpoint.executeListRequest(translatedQuery.getIdOrMembershipExpression(), query, options, true,
-                            createJSONObjectHandler(handler));
+                    // without a filter the query holds just the membership path itself
+                    String membershipPath = translatedQuery.getIdOrMembershipExpression();
+                    String membershipFilter = query.equals(membershipPath) ? null : query;
+                    if (isCountOnly(options)) {
+                        countObjects(membershipPath, membershipFilter);
+                        return;
+                    }
+
+                    listObjects(membershipPath, membershipFilter == null ? selectorList
+                            : selectorList + '&' + membershipFilter, options, true, handler);
+                    countRemainingResults(membershipPath, membershipFilter, options);
 
                 } else {
 
                     LOG.ok("The constructed filter about to being used: {0}", query);
-                    endpoint.executeListRequest(GROUPS, query, options, true, createJSONObjectHandler(handler));
+                    List<String> chunkQueries = new ArrayList<>();
+                    for (String chunkQuery : translatedQuery.toChunkQueries()) {
+                        // chunks are sorted once merged, see listChunkedObjects
+                        if (!translatedQuery.isChunked()) {
+                            chunkQuery += orderByClause(options, SORTABLE_ATTRS, ATTR_DISPLAYNAME, chunkQuery);
+                        }
+                        chunkQueries.add(selectorList + '&' + chunkQuery + expandRelationship(options, chunkQuery));
+                    }
+                    if (isCountOnly(options)) {
+                        if (translatedQuery.isChunked()) {
+                            // a group may match more chunks
+                            countListedObjects(countingHandler ->
+                                    listChunkedObjects(GROUPS, chunkQueries, options, true, countingHandler));
+                        } else {
+                            countObjects(GROUPS, translatedQuery.toCountQuery());
+                        }
+                        return;
+                    }
+
+                    listChunkedObjects(GROUPS, chunkQueries, options, true, handler);
+                    countRemainingResults(GROUPS, translatedQuery.toCountQuery(), options);
                 }
             }
 
         } else {
 
             LOG.info("Empty query, returning full list of objects for the {0} object class", ObjectClass.GROUP_NAME);
+            if (isCountOnly(options)) {
+                countObjects(GROUPS, null);
+                return;
+            }
+
+            listObjects(GROUPS, selectorList + orderByClause(options, SORTABLE_ATTRS, ATTR_DISPLAYNAME, null)
+                    + expandRelationship(options, null), options, true, handler);
+            countRemainingResults(GROUPS, null, options);
+        }
+    }
 
-            endpoint.executeListRequest(GROUPS, null, options, true, createJSONObjectHandler(handler));
+    /**
+     * Graph expands a single relationship per request, members take precedence over owners.
+     */
+    private String expandRelationship(OperationOptions options, String query) {
+        if (shouldSaturate(options, ObjectClass.GROUP_NAME, ATTR_MEMBERS)) {
+            return expandClause(ATTR_MEMBERS, query);
+        }
+        if (shouldSaturate(options, ObjectClass.GROUP_NAME, ATTR_OWNERS)) {
+            return expandClause(ATTR_OWNERS, query);
         }
+        return "";
     }
 
     /**
@@ -538,11 +647,21 @@ public class GroupProcessing extends ObjectProcessing {
     protected boolean handleJSONObject(OperationOptions options, JSONObject group, ResultsHandler handler) {
         LOG.ok("handleJSONObject");
         if (shouldSaturate(options, ObjectClass.GROUP_NAME, ATTR_MEMBERS)) {
-            group = saturateGroupMembership(group);
+            final JSONArray expanded = getCompleteExpansion(group, ATTR_MEMBERS);
+            if (expanded != null) {
+                group.put(ATTR_MEMBERS, getJSONArray(expanded, ATTR_ID));
+            } else {
+                group = saturateGroupMembership(group);
+            }
         }
 
         if (shouldSaturate(options, ObjectClass.GROUP_NAME, ATTR_OWNERS)) {
-            group = saturateGroupOwnership(group);
+            final JSONArray expanded = getCompleteExpansion(group, ATTR_OWNERS);
+            if (expanded != null) {
+                group.put(ATTR_OWNERS, getJSONArray(expanded, ATTR_ID));
+            } else {
+                group = saturateGroupOwnership(group);
+            }
         }
 
         ConnectorObjectBuilder builder = convertGroupJSONObjectToConnectorObject(group);
@@ -555,6 +674,59 @@ public class GroupProcessing extends ObjectProcessing {
         return handler.handle(connectorObject);
     }
 
+    /**
+     * @param options Operation options of the sync
+     * @return Selector of the group delta query, selecting the members if they are requested
+     */
+    public String getDeltaSelector(OperationOptions options) {
+        final String selector = projectedSelector(options, LIST_ATTRS, ATTR_ID, ATTR_DISPLAYNAME);
+        if (!attributePlan(options, ObjectClass.GROUP_NAME).contains(ATTR_MEMBERS)) {
+            return selector;
+        }
+        return selector + "," + ATTR_MEMBERS;
+    }
+
+    /**
+     * Convert a changed group returned by the delta query. Graph returns the added and removed members in
+     * <code>members@delta</code>. The complete members of a group whose members changed are fetched, also when
+     * partial values are allowed, as the removed members cannot be delivered in an attribute value. A group whose
+     * name did not change comes with the changed properties only and is fetched.
+     *
+     * @param group   Changed group
+     * @param options Operation options of the sync
+     * @return Connector object of the group, <code>null</code> if the group no longer exists
+     */
+    public ConnectorObject convertDeltaToConnectorObject(JSONObject group, OperationOptions options) {
+        final JSONArray membersDelta = group.optJSONArray(ATTR_MEMBERS + O_DELTA);
+        final AttributePlan plan = attributePlan(options, ObjectClass.GROUP_NAME);
+
+        if (!group.has(ATTR_DISPLAYNAME)) {
+            LOG.ok("Fetching the changed group {0}", group.getString(ATTR_ID));
+            try {
+                group = getGraphEndpoint().executeGetRequest(GROUPS + "/" + group.getString(ATTR_ID),
+                        projectedSelector(options, LIST_ATTRS, ATTR_ID, ATTR_DISPLAYNAME), options);
+            } catch (UnknownUidException e) {
+                LOG.ok("The changed group no longer exists: {0}", e.getMessage());
+                return null;
+            }
+        }
+
+        if (membersDelta != null && plan.contains(ATTR_MEMBERS)) {
+            int removedMembers = 0;
+            for (int i = 0; i < membersDelta.length(); i++) {
+                if (membersDelta.getJSONObject(i).has(O_REMOVED)) {
+                    removedMembers++;
+                }
+            }
+            LOG.ok("Members of the group {0} changed, added: {1}, removed: {2}", group.optString(ATTR_ID),
+                    membersDelta.length() - removedMembers, removedMembers);
+
+            group = saturateGroupMembership(group);
+        }
+
+        return convertGroupJSONObjectToConnectorObject(group).build();
+    }
+
     private ConnectorObjectBuilder convertGroupJSONObjectToConnectorObject(JSONObject group) {
         LOG.ok("convertGroupJSONObjectToConnectorObject execution");
         ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
@@ -563,30 +735,7 @@ public class GroupProcessing extends ObjectProcessing {
         getUIDIfExists(group, ATTR_ID, builder);
         getNAMEIfExists(group, ATTR_DISPLAYNAME, builder);
 
-        getIfExists(group, ATTR_DISPLAYNAME, String.class, builder);
-        getIfExists(group, ATTR_DESCRIPTION, String.class, builder);
-        getMultiIfExists(group, ATTR_GROUPTYPES, builder);
-        getIfExists(group, ATTR_MEMBERSHIPRULE, String.class, builder);
-        getIfExists(group, ATTR_MEMBERSHIPRULEPROCESSINGSTATE, String.class, builder);
-        getIfExists(group, ATTR_MAIL, String.class, builder);
-        getIfExists(group, ATTR_MAILENABLED, Boolean.class, builder);
-        getIfExists(group, ATTR_MAILNICKNAME, String.class, builder);
-        getIfExists(group, ATTR_ONPREMISESLASTSYNCDATETIME, String.class, builder);
-        getIfExists(group, ATTR_ONPREMISESSECURITYIDENTIFIER, String.class, builder);
-        getIfExists(group, ATTR_ONPREMISESSYNCENABLED, Boolean.class, builder);
-        getMultiIfExists(group, ATTR_PROXYADDRESSES, builder);
-        getIfExists(group, ATTR_SECURITYENABLED, Boolean.class, builder);
-        getIfExists(group, ATTR_VISIBILITY, String.class, builder);
-        getIfExists(group, ATTR_CREATEDDATETIME, String.class, builder);
-        getIfExists(group, ATTR_CLASSIFICATION, String.class, builder);
-
-        getIfExists(group, ATTR_ALLOWEXTERNALSENDERS, Boolean.class, builder);
-        getIfExists(group, ATTR_AUTOSUBSCRIBENEWMEMBERS, Boolean.class, builder);
-        getIfExists(group, ATTR_ISSUBSCRIBEDBYMAIL, Boolean.class, builder);
-        getIfExists(group, ATTR_UNSEENCOUNT, Integer.class, builder);
-
-        getMultiIfExists(group, ATTR_MEMBERS, builder);
-        getMultiIfExists(group, ATTR_OWNERS, builder);
+        GROUP_MAPPER.map(group, builder);
 
         return builder;
     }
@@ -0,0 +1,306 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Table-driven conversion of Graph API JSON objects to ConnId attributes.
+ * <p>
+ * The mapping table is compiled once per object class into a flat array of accessors, grouped by the JSON key they
+ * read. Conversion then looks every present key up exactly once instead of probing the JSON object repeatedly for
+ * each attribute the schema knows about.
+ */
+public class JSONObjectMapper {
+
+    private static final Pattern INHERIT_PERMISSIONS_PREFIX = Pattern.compile(
+            "https://graph.microsoft.com/v1.0/\\$metadata#roleManagement/directory/roleDefinitions\\('");
+    private static final Pattern INHERIT_PERMISSIONS_SUFFIX = Pattern.compile("'\\)/inheritsPermissionsFrom");
+    private static final Pattern RESOURCE_ACTIONS_DECORATION = Pattern.compile("[\\[\\]\"]");
+    private static final String CONDITION = "condition";
+
+    enum Kind {
+        /** Single value, optionally renamed and/or base64-decoded. */
+        SINGLE,
+        /** JSON array of values. */
+        MULTI,
+        /** Sub-attribute of a nested object, emitted even if the sub-attribute is missing. */
+        ITEM,
+        /** Sub-attribute of a nested object, emitted only if present. */
+        OBJECT_ITEM,
+        /** Sub-attribute collected from every element of a JSON array. */
+        ARRAY,
+        /** Role definition {@code inheritsPermissionsFrom@odata.context} link, stripped to the role id. */
+        INHERIT_PERMISSIONS,
+        /** Role permissions flattened to {@code condition|action} values. */
+        ROLE_PERMISSIONS
+    }
+
+    static final class Accessor {
+        final Kind kind;
+        final String source;
+        final String subAttribute;
+        final String target;
+        final Class<?> type;
+
+        Accessor(Kind kind, String source, String subAttribute, String target, Class<?> type) {
+            this.kind = kind;
+            this.source = source;
+            this.subAttribute = subAttribute;
+            this.target = target;
+            this.type = type;
+        }
+    }
+
+    private final Map<String, Accessor[]> accessorsBySource;
+
+    private JSONObjectMapper(List<Accessor> accessors) {
+        Map<String, List<Accessor>> grouped = new HashMap<>();
+        for (Accessor accessor : accessors) {
+            grouped.computeIfAbsent(accessor.source, k -> new ArrayList<>()).add(accessor);
+        }
+        Map<String, Accessor[]> bySource = new HashMap<>(grouped.size() * 2);
+        grouped.forEach((source, list) -> bySource.put(source, list.toArray(new Accessor[0])));
+        this.accessorsBySource = Collections.unmodifiableMap(bySource);
+    }
+
+    /**
+     * Create a mapper builder
+     *
+     * @return Builder
+     */
+    public static JSONObjectMapperBuilder builder() {
+        return new JSONObjectMapperBuilder();
+    }
+
+    /**
+     * Copy all mapped attributes present in the JSON object to the connector object builder. Listed objects carry
+     * only the attributes selected by the query, so the keys of a small object are looked up in the table rather
+     * than the whole table probed in the object.
+     *
+     * @param object  Graph API JSON object
+     * @param builder Target builder
+     */
+    public void map(JSONObject object, ConnectorObjectBuilder builder) {
+        if (object.length() < accessorsBySource.size()) {
+            for (String key : object.keySet()) {
+                Accessor[] forKey = accessorsBySource.get(key);
+                if (forKey != null) {
+                    apply(forKey, object.opt(key), builder);
+                }
+            }
+        } else {
+            for (Map.Entry<String, Accessor[]> entry : accessorsBySource.entrySet()) {
+                Object value = object.opt(entry.getKey());
+                if (value != null) {
+                    apply(entry.getValue(), value, builder);
+                }
+            }
+        }
+    }
+
+    private void apply(Accessor[] forKey, Object value, ConnectorObjectBuilder builder) {
+        for (Accessor accessor : forKey) {
+            switch (accessor.kind) {
+                case SINGLE:
+                    mapSingle(accessor, value, builder);
+                    break;
+                case MULTI:
+                    mapMulti(accessor, value, builder);
+                    break;
+                case ITEM:
+                    if (value instanceof JSONObject) {
+                        builder.addAttribute(accessor.target, subValue((JSONObject) value, accessor.subAttribute, accessor.type));
+                    }
+                    break;
+                case OBJECT_ITEM:
+                    if (value instanceof JSONObject) {
+                        Object subValue = subValue((JSONObject) value, accessor.subAttribute, accessor.type);
+                        if (subValue != null) {
+                            builder.addAttribute(accessor.target, subValue);
+                        }
+                    }
+                    break;
+                case ARRAY:
+                    mapArray(accessor, value, builder);
+                    break;
+                case INHERIT_PERMISSIONS:
+                    mapInheritPermissions(accessor, value, builder);
+                    break;
+                case ROLE_PERMISSIONS:
+                    mapRolePermissions(accessor, value, builder);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported accessor kind: " + accessor.kind);
+            }
+        }
+    }
+
+    private static boolean isBlank(Object value) {
+        return value == null || JSONObject.NULL.equals(value) || String.valueOf(value).isEmpty();
+    }
+
+    private static void mapSingle(Accessor accessor, Object value, ConnectorObjectBuilder builder) {
+        if (isBlank(value)) {
+            return;
+        }
+        if (accessor.type == String.class) {
+            builder.addAttribute(accessor.target, StringEscapeUtils.unescapeXml(String.valueOf(value)));
+        } else if (accessor.type == byte[].class) {
+            builder.addAttribute(accessor.target, java.util.Base64.getDecoder().decode(String.valueOf(value)));
+        } else if (value instanceof String) {
+            builder.addAttribute(accessor.target, StringEscapeUtils.unescapeXml((String) value));
+        } else {
+            builder.addAttribute(accessor.target, value);
+        }
+    }
+
+    private static void mapMulti(Accessor accessor, Object value, ConnectorObjectBuilder builder) {
+        if (JSONObject.NULL.equals(value)) {
+            return;
+        }
+        if (!(value instanceof JSONArray)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Unsupported value: ").append(value).append(" for attribute name:").append(accessor.source);
+            throw new InvalidAttributeValueException(sb.toString());
+        }
+        JSONArray array = (JSONArray) value;
+        int length = array.length();
+        Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = String.valueOf(array.get(i));
+        }
+        builder.addAttribute(accessor.target, values);
+    }
+
+    private static void mapArray(Accessor accessor, Object value, ConnectorObjectBuilder builder) {
+        if (!(value instanceof JSONArray)) {
+            return;
+        }
+        JSONArray array = (JSONArray) value;
+        int length = array.length();
+        List<Object> values = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            Object item = array.get(i);
+            if (item instanceof JSONObject) {
+                Object subValue = subValue((JSONObject) item, accessor.subAttribute, accessor.type);
+                if (subValue != null) {
+                    values.add(subValue);
+                }
+            }
+        }
+        builder.addAttribute(accessor.target, values.toArray());
+    }
+
+    private static void mapInheritPermissions(Accessor accessor, Object value, ConnectorObjectBuilder builder) {
+        if (isBlank(value)) {
+            return;
+        }
+        String attrValue = INHERIT_PERMISSIONS_PREFIX.matcher(String.valueOf(value)).replaceFirst("");
+        attrValue = INHERIT_PERMISSIONS_SUFFIX.matcher(attrValue).replaceFirst("");
+        builder.addAttribute(accessor.target, StringEscapeUtils.unescapeXml(attrValue));
+    }
+
+    private static void mapRolePermissions(Accessor accessor, Object value, ConnectorObjectBuilder builder) {
+        if (!(value instanceof JSONArray)) {
+            return;
+        }
+        JSONArray array = (JSONArray) value;
+        List<String> workingValues = new ArrayList<>();
+        List<String> returnValues = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            Object item = array.get(i);
+            if (!(item instanceof JSONObject)) {
+                continue;
+            }
+            Object subValue = subValue((JSONObject) item, accessor.subAttribute, String.class);
+            Object condition = subValue((JSONObject) item, CONDITION, String.class);
+            if (subValue != null) {
+                Collections.addAll(workingValues,
+                        RESOURCE_ACTIONS_DECORATION.matcher((String) subValue).replaceAll("").split(","));
+            }
+            // values of previous permissions are kept in the working list, same as the original conversion did
+            for (String action : workingValues) {
+                returnValues.add(condition != null ? condition + "|" + action : action);
+            }
+        }
+        builder.addAttribute(accessor.target, returnValues.toArray());
+    }
+
+    private static Object subValue(JSONObject item, String subAttribute, Class<?> type) {
+        Object value = item.opt(subAttribute);
+        if (isBlank(value)) {
+            return null;
+        }
+        return type == String.class ? String.valueOf(value) : value;
+    }
+
+    /**
+     * Builder for {@link JSONObjectMapper}
+     */
+    static class JSONObjectMapperBuilder {
+        private final List<Accessor> accessors = new ArrayList<>();
+
+        public JSONObjectMapperBuilder single(Class<?> type, String... attributes) {
+            for (String attribute : attributes) {
+                accessors.add(new Accessor(Kind.SINGLE, attribute, null, attribute, type));
+            }
+            return this;
+        }
+
+        public JSONObjectMapperBuilder rename(String jsonAttribute, Class<?> type, String icfAttribute) {
+            accessors.add(new Accessor(Kind.SINGLE, jsonAttribute, null, icfAttribute, type));
+            return this;
+        }
+
+        public JSONObjectMapperBuilder multi(String... attributes) {
+            for (String attribute : attributes) {
+                accessors.add(new Accessor(Kind.MULTI, attribute, null, attribute, String.class));
+            }
+            return this;
+        }
+
+        public JSONObjectMapperBuilder item(String attribute, String subAttribute, Class<?> type) {
+            accessors.add(new Accessor(Kind.ITEM, attribute, subAttribute, attribute + "." + subAttribute, type));
+            return this;
+        }
+
+        public JSONObjectMapperBuilder objectItem(String attribute, String subAttribute, Class<?> type) {
+            accessors.add(new Accessor(Kind.OBJECT_ITEM, attribute, subAttribute, attribute + "." + subAttribute, type));
+            return this;
+        }
+
+        public JSONObjectMapperBuilder array(String attribute, String subAttribute, Class<?> type) {
+            accessors.add(new Accessor(Kind.ARRAY, attribute, subAttribute, attribute + "." + subAttribute, type));
+            return this;
+        }
+
+        public JSONObjectMapperBuilder inheritPermissions(String attribute) {
+            accessors.add(new Accessor(Kind.INHERIT_PERMISSIONS, attribute, null, attribute, String.class));
+            return this;
+        }
+
+        public JSONObjectMapperBuilder rolePermissions(String attribute, String subAttribute) {
+            accessors.add(new Accessor(Kind.ROLE_PERMISSIONS, attribute, subAttribute, attribute + "." + subAttribute, String.class));
+            return this;
+        }
+
+        /**
+         * Compile the mapper
+         *
+         * @return Mapper
+         */
+        public JSONObjectMapper build() {
+            return new JSONObjectMapper(accessors);
+        }
+    }
+}
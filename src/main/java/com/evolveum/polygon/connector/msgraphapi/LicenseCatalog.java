@@ -0,0 +1,121 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.apache.commons.lang3.StringUtils;
+import org.identityconnectors.common.logging.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Subscribed SKUs of the tenant and the disabled plans configured for them.
+ * <p>
+ * The skuId to disabled plans map is compiled once from the configuration. The SKUs are kept for the configured
+ * lifetime, a lifetime of zero disables caching of SKUs. Consumed units of cached SKUs are not updated until the
+ * SKUs are reloaded, the cache is therefore dropped whenever the connector assigns licenses.
+ */
+public class LicenseCatalog {
+
+    private static final Log LOG = Log.getLog(LicenseCatalog.class);
+
+    private final Map<String, List<String>> disabledPlans;
+    private final long lifetime;
+    private List<JSONObject> skus;
+    private long expiresAt;
+
+    LicenseCatalog(String[] disabledPlans, long lifetime) {
+        this.disabledPlans = compileDisabledPlans(disabledPlans);
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Compile the disabled plans configuration, entries are either <code>skuId:planId</code> or suggested values
+     * in the form <code>skuPartNumber:planName [skuId:planId]</code>.
+     *
+     * @param configured Disabled plans configuration
+     * @return Unmodifiable map of skuId to disabled plan ids
+     */
+    static Map<String, List<String>> compileDisabledPlans(String[] configured) {
+        if (configured == null || configured.length == 0) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Set<String>> plansBySku = new LinkedHashMap<>();
+        for (String licensePlan : configured) {
+            String plan = licensePlan;
+            if (licensePlan.contains("[") && licensePlan.contains("]")) {
+                String[] divPlan = StringUtils.substringsBetween(licensePlan, "[", "]");
+                plan = divPlan[divPlan.length - 1];
+                if (!plan.contains(":")) {
+                    LOG.warn("Potentially malformed plan ID detected on input: {0}", plan);
+                    continue;
+                }
+            }
+
+            String[] a = plan.split(":", 2);
+            if (a.length != 2) {
+                continue;
+            }
+            Set<String> plans = plansBySku.computeIfAbsent(a[0], k -> new LinkedHashSet<>());
+            Collections.addAll(plans, a[1].split(","));
+        }
+
+        Map<String, List<String>> compiled = new HashMap<>(plansBySku.size() * 2);
+        plansBySku.forEach((skuId, plans) -> compiled.put(skuId, Collections.unmodifiableList(new ArrayList<>(plans))));
+        LOG.ok("Compiled disabled plans: {0}", compiled);
+        return Collections.unmodifiableMap(compiled);
+    }
+
+    /**
+     * @param skuId SKU id
+     * @return Plans of the SKU to disable on assignment, <code>null</code> if none are configured
+     */
+    public List<String> getDisabledPlans(String skuId) {
+        return disabledPlans.get(skuId);
+    }
+
+    public boolean isCachingSkus() {
+        return lifetime > 0;
+    }
+
+    /**
+     * Get the subscribed SKUs, loading them if caching is disabled, nothing is cached or the cache expired.
+     *
+     * @param loader Loads the SKUs from Graph
+     * @return Copies of the SKUs
+     */
+    public synchronized List<JSONObject> getSkus(Supplier<JSONArray> loader) {
+        final long now = System.currentTimeMillis();
+        if (skus == null || now >= expiresAt) {
+            final JSONArray value = loader.get();
+            final List<JSONObject> loaded = new ArrayList<>(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                loaded.add(value.getJSONObject(i));
+            }
+            if (!isCachingSkus()) {
+                return loaded;
+            }
+            skus = loaded;
+            expiresAt = now + lifetime;
+            LOG.info("Cached {0} subscribed SKUs", skus.size());
+        }
+
+        final List<JSONObject> result = new ArrayList<>(skus.size());
+        for (JSONObject sku : skus) {
+            result.add(new JSONObject(sku, JSONObject.getNames(sku)));
+        }
+        return result;
+    }
+
+    public synchronized void invalidateSkus() {
+        skus = null;
+    }
+}
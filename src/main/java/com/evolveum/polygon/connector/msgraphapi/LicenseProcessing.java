@@ -54,6 +54,13 @@ public class LicenseProcessing extends ObjectProcessing {
             ATTR_PREPAIDUNITS
     );
 
+    private static final JSONObjectMapper LICENSE_MAPPER = JSONObjectMapper.builder()
+            .single(String.class, ATTR_ID, ATTR_APPLIESTO, ATTR_CAPABILITYSTATUS, ATTR_SKUID, ATTR_SKUPAATNUMBER)
+            .single(Integer.class, ATTR_CONSUMEDUNITS)
+            .item(ATTR_PREPAIDUNITS, ATTR_ENABLED, Integer.class)
+            .array(ATTR_SERVICEPLANS, ATTR_SERVICEPLANID, String.class)
+            .build();
+
     public LicenseProcessing(GraphEndpoint graphEndpoint, SchemaTranslator schemaTranslator) {
         super(graphEndpoint, ICFPostMapper.builder().build());
     }
@@ -67,6 +74,18 @@ public class LicenseProcessing extends ObjectProcessing {
         return OBJECT_CLASS_NAME;
     }
 
+    /**
+     * Licenses are fetched by id only, all other filters are evaluated on the listed licenses.
+     */
+    @Override
+    protected boolean isSupportedFilter(Filter filter) {
+        if (!(filter instanceof EqualsFilter)) {
+            return false;
+        }
+        final String attrName = ((EqualsFilter) filter).getName();
+        return attrName.equals(ATTR_ID) || attrName.equals(Uid.NAME);
+    }
+
     @Override
     protected ObjectClassInfo objectClassInfo() {
         Set<AttributeInfo> attributes = new HashSet<>();
@@ -115,6 +134,16 @@ public class LicenseProcessing extends ObjectProcessing {
 
     private void get(ResultsHandler handler, String skuId, OperationOptions options) {
         final GraphEndpoint endpoint = getGraphEndpoint();
+        final LicenseCatalog catalog = endpoint.getLicenseCatalog();
+        if (catalog.isCachingSkus()) {
+            for (JSONObject sku : catalog.getSkus(this::fetchSkus)) {
+                if (skuId.equals(sku.optString(ATTR_ID))) {
+                    handleJSONObject(options, sku, handler);
+                    return;
+                }
+            }
+        }
+
         JSONObject json = endpoint.executeGetRequest(GRAPH_SUBSCRIBEDSKUS + "/" + skuId, SELECTOR_FULL, options);
         LOG.info("JSONObject license {0}", json);
         handleJSONObject(options, json, handler);
@@ -122,19 +151,32 @@ public class LicenseProcessing extends ObjectProcessing {
 
     private void list(ResultsHandler handler, OperationOptions options) {
         final GraphEndpoint endpoint = getGraphEndpoint();
-        String selector = SELECTOR_FULL;
-        if (options != null && options.getAllowPartialAttributeValues() != null && options.getAllowPartialAttributeValues())
-            selector = SELECTOR_PARTIAL;
+        final boolean partial = options != null && options.getAllowPartialAttributeValues() != null
+                && options.getAllowPartialAttributeValues();
+        final LicenseCatalog catalog = endpoint.getLicenseCatalog();
+        if (catalog.isCachingSkus()) {
+            List<JSONObject> skus = catalog.getSkus(this::fetchSkus);
+            if (partial) {
+                skus.forEach(sku -> sku.remove(ATTR_SERVICEPLANS));
+            }
+            handleObjects(skus, options, handler);
+            return;
+        }
+
+        String selector = partial ? SELECTOR_PARTIAL : SELECTOR_FULL;
         // Paging is not supported
         endpoint.executeListRequest(GRAPH_SUBSCRIBEDSKUS, selector, options, false, createJSONObjectHandler(handler));
     }
 
     public List<JSONObject> list() {
-        final GraphEndpoint endpoint = getGraphEndpoint();
+        return getGraphEndpoint().getLicenseCatalog().getSkus(this::fetchSkus);
+    }
+
+    private JSONArray fetchSkus() {
         // Paging is not supported
-        JSONArray json = endpoint.executeListRequest(GRAPH_SUBSCRIBEDSKUS, SELECTOR_FULL, null, false);
+        JSONArray json = getGraphEndpoint().executeListRequest(GRAPH_SUBSCRIBEDSKUS, SELECTOR_FULL, null, false);
         LOG.info("JSONObject license {0}", json);
-        return handleJSONArray(json);
+        return json;
     }
 
     public void executeQueryForLicense(Filter query, ResultsHandler handler, OperationOptions options) {
@@ -166,14 +208,7 @@ public class LicenseProcessing extends ObjectProcessing {
         getUIDIfExists(json, ATTR_ID, builder);
         getNAMEIfExists(json, ATTR_SKUPAATNUMBER, builder);
 
-        getIfExists(json, ATTR_ID, String.class, builder);
-        getIfExists(json, ATTR_APPLIESTO, String.class, builder);
-        getIfExists(json, ATTR_CAPABILITYSTATUS, String.class, builder);
-        getIfExists(json, ATTR_CONSUMEDUNITS, Integer.class, builder);
-        getIfExists(json, ATTR_SKUID, String.class, builder);
-        getIfExists(json, ATTR_SKUPAATNUMBER, String.class, builder);
-        getFromItemIfExists(json, ATTR_PREPAIDUNITS, ATTR_ENABLED, Integer.class, builder);
-        getFromArrayIfExists(json, ATTR_SERVICEPLANS, ATTR_SERVICEPLANID, String.class, builder);
+        LICENSE_MAPPER.map(json, builder);
 
         return handler.handle(builder.build());
     }
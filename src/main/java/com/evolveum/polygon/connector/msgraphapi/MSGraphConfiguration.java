@@ -42,6 +42,18 @@ public class MSGraphConfiguration extends AbstractConfiguration
     private boolean treatNetIdAsAlreadyExists;
     private boolean validateWithFailoverTrust = true;
     private boolean delayAccountProvisioning;
+    private boolean expandRelationships;
+    private boolean membershipIndex;
+    private Integer membershipIndexLifetime = 300;
+    private Integer membershipIndexMaxSize = 1000000;
+    private Integer saturationThreads = 1;
+    private Integer prefetchPages = 0;
+    private Integer roleCacheLifetime = 0;
+    private Integer roleCacheMaxSize = 1000;
+    private Integer licenseCacheLifetime = 0;
+    private boolean signInActivity;
+    private Integer signInScanDays = 0;
+    private boolean coalesceSyncDeltas;
 
     private GraphConfigurationHandler configHandler = new GraphConfigurationHandler();
 
@@ -228,6 +240,78 @@ public class MSGraphConfiguration extends AbstractConfiguration
 
     public void setDelayAccountProvisioning(boolean delayAccountProvisioning) { this.delayAccountProvisioning = delayAccountProvisioning; }
 
+    @ConfigurationProperty(order = 170, displayMessageKey = "ExpandRelationships.display", helpMessageKey = "ExpandRelationships.help")
+
+    public boolean isExpandRelationships() { return expandRelationships; }
+
+    public void setExpandRelationships(boolean expandRelationships) { this.expandRelationships = expandRelationships; }
+
+    @ConfigurationProperty(order = 180, displayMessageKey = "MembershipIndex.display", helpMessageKey = "MembershipIndex.help")
+
+    public boolean isMembershipIndex() { return membershipIndex; }
+
+    public void setMembershipIndex(boolean membershipIndex) { this.membershipIndex = membershipIndex; }
+
+    @ConfigurationProperty(order = 190, displayMessageKey = "MembershipIndexLifetime.display", helpMessageKey = "MembershipIndexLifetime.help")
+
+    public Integer getMembershipIndexLifetime() { return membershipIndexLifetime; }
+
+    public void setMembershipIndexLifetime(Integer membershipIndexLifetime) { this.membershipIndexLifetime = membershipIndexLifetime; }
+
+    @ConfigurationProperty(order = 200, displayMessageKey = "MembershipIndexMaxSize.display", helpMessageKey = "MembershipIndexMaxSize.help")
+
+    public Integer getMembershipIndexMaxSize() { return membershipIndexMaxSize; }
+
+    public void setMembershipIndexMaxSize(Integer membershipIndexMaxSize) { this.membershipIndexMaxSize = membershipIndexMaxSize; }
+
+    @ConfigurationProperty(order = 210, displayMessageKey = "SaturationThreads.display", helpMessageKey = "SaturationThreads.help")
+
+    public Integer getSaturationThreads() { return saturationThreads; }
+
+    public void setSaturationThreads(Integer saturationThreads) { this.saturationThreads = saturationThreads; }
+
+    @ConfigurationProperty(order = 220, displayMessageKey = "PrefetchPages.display", helpMessageKey = "PrefetchPages.help")
+
+    public Integer getPrefetchPages() { return prefetchPages; }
+
+    public void setPrefetchPages(Integer prefetchPages) { this.prefetchPages = prefetchPages; }
+
+    @ConfigurationProperty(order = 230, displayMessageKey = "RoleCacheLifetime.display", helpMessageKey = "RoleCacheLifetime.help")
+
+    public Integer getRoleCacheLifetime() { return roleCacheLifetime; }
+
+    public void setRoleCacheLifetime(Integer roleCacheLifetime) { this.roleCacheLifetime = roleCacheLifetime; }
+
+    @ConfigurationProperty(order = 240, displayMessageKey = "RoleCacheMaxSize.display", helpMessageKey = "RoleCacheMaxSize.help")
+
+    public Integer getRoleCacheMaxSize() { return roleCacheMaxSize; }
+
+    public void setRoleCacheMaxSize(Integer roleCacheMaxSize) { this.roleCacheMaxSize = roleCacheMaxSize; }
+
+    @ConfigurationProperty(order = 250, displayMessageKey = "LicenseCacheLifetime.display", helpMessageKey = "LicenseCacheLifetime.help")
+
+    public Integer getLicenseCacheLifetime() { return licenseCacheLifetime; }
+
+    public void setLicenseCacheLifetime(Integer licenseCacheLifetime) { this.licenseCacheLifetime = licenseCacheLifetime; }
+
+    @ConfigurationProperty(order = 260, displayMessageKey = "SignInActivity.display", helpMessageKey = "SignInActivity.help")
+
+    public boolean isSignInActivity() { return signInActivity; }
+
+    public void setSignInActivity(boolean signInActivity) { this.signInActivity = signInActivity; }
+
+    @ConfigurationProperty(order = 270, displayMessageKey = "SignInScanDays.display", helpMessageKey = "SignInScanDays.help")
+
+    public Integer getSignInScanDays() { return signInScanDays; }
+
+    public void setSignInScanDays(Integer signInScanDays) { this.signInScanDays = signInScanDays; }
+
+    @ConfigurationProperty(order = 280, displayMessageKey = "CoalesceSyncDeltas.display", helpMessageKey = "CoalesceSyncDeltas.help")
+
+    public boolean isCoalesceSyncDeltas() { return coalesceSyncDeltas; }
+
+    public void setCoalesceSyncDeltas(boolean coalesceSyncDeltas) { this.coalesceSyncDeltas = coalesceSyncDeltas; }
+
     @Override
     public void validate() {
         LOG.info("Processing trough configuration validation procedure.");
@@ -286,6 +370,35 @@ public class MSGraphConfiguration extends AbstractConfiguration
                     "a non negative number!");
         }
 
+        if (membershipIndex) {
+            if (membershipIndexLifetime == null || membershipIndexLifetime <= 0) {
+                throw new ConfigurationException("The membership index lifetime has to be a positive number of seconds!");
+            }
+            if (membershipIndexMaxSize == null || membershipIndexMaxSize <= 0) {
+                throw new ConfigurationException("The membership index maximum size has to be a positive number!");
+            }
+        }
+
+        if (saturationThreads == null || saturationThreads < 1) {
+            throw new ConfigurationException("The number of saturation threads has to be a positive number!");
+        }
+
+        if (prefetchPages == null || prefetchPages < 0) {
+            throw new ConfigurationException("The number of prefetched pages has to be a non negative number!");
+        }
+
+        if (roleCacheLifetime != null && roleCacheLifetime > 0 && (roleCacheMaxSize == null || roleCacheMaxSize <= 0)) {
+            throw new ConfigurationException("The role cache maximum size has to be a positive number!");
+        }
+
+        if (licenseCacheLifetime != null && licenseCacheLifetime < 0) {
+            throw new ConfigurationException("The license cache lifetime has to be a non negative number of seconds!");
+        }
+
+        if (signInScanDays != null && signInScanDays < 0) {
+            throw new ConfigurationException("The number of days of scanned sign-ins has to be a non negative number!");
+        }
+
         LOG.info("Configuration valid");
     }
 
@@ -3,6 +3,7 @@
 package com.evolveum.polygon.connector.msgraphapi;
 
 import com.evolveum.polygon.connector.msgraphapi.util.FilterHandler;
+import com.evolveum.polygon.connector.msgraphapi.util.FilterNormalizer;
 import com.evolveum.polygon.connector.msgraphapi.util.ResourceQuery;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
@@ -20,6 +21,8 @@ import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.Connector;
 import org.identityconnectors.framework.spi.ConnectorClass;
 import org.identityconnectors.framework.spi.PoolableConnector;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
 import org.identityconnectors.framework.spi.operations.*;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -29,6 +32,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 
 @ConnectorClass(displayNameKey = "msgraphconnector.connector.display", configurationClass = MSGraphConfiguration.class)
@@ -163,19 +167,13 @@ public class MSGraphConnector implements Connector,
     public SyncToken getLatestSyncToken(ObjectClass objectClass, OperationOptions oo) {
 
         LOG.ok("Evaluation of getLatestSyncToken method with operation options set to: {0}", oo);
-        if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
+        if (objectClass.is(ObjectClass.ACCOUNT_NAME) || objectClass.is(ObjectClass.GROUP_NAME)) {
 
-            String getPath = USERS + "/microsoft.graph.delta";
+            String getPath = (objectClass.is(ObjectClass.ACCOUNT_NAME) ? USERS : GROUPS) + "/microsoft.graph.delta";
             String customQuery = "$deltaToken=latest";
             GraphEndpoint endpoint = getGraphEndpoint();
-            UserProcessing up = new UserProcessing(endpoint, getSchemaTranslator());
-
-            String selector = up.getSelectorSingle(oo);
-
-           // LOG.ok("Fetching latest token with following selector: {0}", selector);
 
             URIBuilder uriBuilder = endpoint.createURIBuilder().clearParameters();
-            uriBuilder.setCustomQuery(customQuery + "&" + selector);
             uriBuilder.setCustomQuery(customQuery);
             uriBuilder.setPath(getPath);
             LOG.info("Get latest sync token uri is {0} ", uriBuilder);
@@ -194,8 +192,8 @@ public class MSGraphConnector implements Connector,
             }
 
         } else {
-            LOG.error("Attribute of type ObjectClass is not supported. Only Account objectclass is supported for getLatestSyncToken currently.");
-            throw new UnsupportedOperationException("Attribute of type ObjectClass is not supported. Only Account objectclass is supported for getLatestSyncToken currently.");
+            LOG.error("Attribute of type ObjectClass is not supported. Only Account and Group objectclasses are supported for getLatestSyncToken currently.");
+            throw new UnsupportedOperationException("Attribute of type ObjectClass is not supported. Only Account and Group objectclasses are supported for getLatestSyncToken currently.");
         }
     }
 
@@ -204,146 +202,252 @@ public class MSGraphConnector implements Connector,
 
         LOG.ok("Evaluation of SYNC op method regarding the object class {0} with the following options: {1}",objectClass
                 , oo);
+        final String selector;
+        final DeltaPageHandler pageHandler;
         if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
-            if (fromToken == null) {
+            UserProcessing userProcessor = new UserProcessing(getGraphEndpoint(), getSchemaTranslator());
+            selector = userProcessor.getSelectorSingle(oo);
+            pageHandler = (value, pageToken, followingToken) ->
+                    handleUserDeltas(userProcessor, coalesceDeltas(userProcessor, value), pageToken,
+                            followingToken, handler, oo);
+
+        } else if (objectClass.is(ObjectClass.GROUP_NAME)) {
+            GroupProcessing groupProcessor = new GroupProcessing(getGraphEndpoint());
+            selector = groupProcessor.getDeltaSelector(oo);
+            pageHandler = (value, pageToken, followingToken) ->
+                    handleGroupDeltas(groupProcessor, coalesceDeltas(groupProcessor, value), pageToken,
+                            followingToken, handler, oo);
+
+        } else {
+            LOG.error("Attribute of type ObjectClass is not supported. Only Account and Group objectclasses are supported for SyncOp currently.");
+            throw new UnsupportedOperationException("Attribute of type ObjectClass is not supported. Only Account and Group objectclasses are supported for SyncOp currently.");
+        }
+
+        if (fromToken == null) {
 
-                LOG.ok("Empty token, fetching latest sync token");
-                fromToken = getLatestSyncToken(objectClass, oo);
+            LOG.ok("Empty token, fetching latest sync token");
+            fromToken = getLatestSyncToken(objectClass, oo);
+        }
+        LOG.info("Starting sync operation");
+        LOG.info("sync ObjectClass is " + objectClass.getObjectClassValue() + "--");
+        LOG.ok("fromToken value is " + fromToken);
+
+        GraphEndpoint endpoint = getGraphEndpoint();
+        String tokenValue = (String) fromToken.getValue();
+        if (!endpoint.isGraphLink(tokenValue)) {
+            throw new InvalidAttributeValueException("Invalid sync token: " + tokenValue);
+        }
+        if (tokenValue.contains("$skiptoken")) {
+            LOG.info("Resuming an interrupted sync from the page {0}", tokenValue);
+        }
+        LOG.ok("Selector value: " +selector);
+
+        LOG.ok("Token and selector pair:" + tokenValue+"&"+selector);
+
+        // every page is handled as it arrives, only the last page holds the delta link of the next sync. The sync
+        // token is either the delta link or the link of a page of an interrupted sync, see handleUserDeltas
+        String link = tokenValue;
+        while (link != null) {
+            HttpRequestBase request = new HttpGet(link + "&" + selector);
+            LOG.ok("Sync page request {0}", request);
+            JSONObject page = endpoint.callRequest(request, true);
+
+            String nextLink = page.optString("@odata.nextLink", null);
+            if (nextLink != null && nextLink.isEmpty()) {
+                nextLink = null;
             }
-            LOG.info("Starting sync operation");
-            LOG.info("ObjectClass.ACCOUNT_NAME is " + ObjectClass.ACCOUNT_NAME);
-            LOG.info("sync ObjectClass is " + objectClass.getObjectClassValue() + "--");
-            LOG.ok("fromToken value is " + fromToken);
 
-            GraphEndpoint endpoint = getGraphEndpoint();
-            UserProcessing userProcessor = new UserProcessing(getGraphEndpoint(), getSchemaTranslator());
-            String selector = userProcessor.getSelectorSingle(oo);
-            String nextDeltaLink = new String();
-            String tokenValue = (String) fromToken.getValue();
-            LOG.ok("Selector value: " +selector);
-
-            LOG.ok("Token and selector pair:" + tokenValue+"&"+selector);
-
-            HttpRequestBase request = new HttpGet(tokenValue+"&"+selector);
-            //request.setRetryHandler(new StandardHttpRequestRetryHandler(5, true));
-            JSONObject firstCall = endpoint.callRequest(request, true);
-            JSONArray value = new JSONArray();
-            String nextLink = new String();
-            //JSONObject values = new JSONObject();
-            boolean morePages = false;
-            if (firstCall.has("@odata.nextLink") && firstCall.getString("@odata.nextLink") != null && !firstCall.getString("@odata.nextLink").isEmpty()) {
-                morePages = true;
-                nextLink = firstCall.getString("@odata.nextLink");
-                LOG.ok("nextLink: {0} ; firstCall: {1} ", nextLink, firstCall);
+            SyncToken pageToken = new SyncToken(link);
+            SyncToken followingToken;
+            if (nextLink != null) {
+                followingToken = new SyncToken(nextLink);
             } else {
-                morePages = false;
-                LOG.info("No nextLink defined, final page was firstCall");
-                nextDeltaLink = firstCall.getString("@odata.deltaLink");
+                LOG.info("No nextLink defined, final page");
+                followingToken = new SyncToken(page.getString("@odata.deltaLink"));
             }
-            if (firstCall.has("value") && firstCall.get("value") != null) {
-                //value.addAll(firstCall.getJSONArray("value"));
-                for (int i = 0; i < firstCall.getJSONArray("value").length(); i++) {
-                    value.put(firstCall.getJSONArray("value").get(i));
-                }
-                LOG.ok("firstCall: {0} ", firstCall);
-            } else {
-                LOG.info("firstCall contained no value object or the object was null");
+
+            JSONArray value = page.optJSONArray("value");
+            if (value == null) {
+                LOG.info("Sync page contained no value object or the object was null");
+            } else if (!pageHandler.handle(value, pageToken, followingToken)) {
+                LOG.info("Sync operation stopped by the handler");
+                return;
             }
-            while (morePages == true) {
-                JSONObject nextLinkJson = new JSONObject();
-                HttpRequestBase nextLinkUriRequest = new HttpGet(nextLink+"&"+selector);
-                LOG.ok("nextLinkUriRequest {0}", nextLinkUriRequest);
-                nextLinkJson = endpoint.callRequest(nextLinkUriRequest, true);
-                if (nextLinkJson.has("@odata.nextLink") && nextLinkJson.getString("@odata.nextLink") != null &&
-                        !nextLinkJson.getString("@odata.nextLink").isEmpty()) {
-
-                    morePages = true;
-                    nextLink = nextLinkJson.getString("@odata.nextLink");
-                    LOG.ok("nextLink: {0} ; nextLinkJson: {1} ", nextLink, nextLinkJson);
-                } else {
-                    morePages = false;
-                    LOG.info("No nextLink defined, final page");
-                    nextDeltaLink = nextLinkJson.getString("@odata.deltaLink");
-                }
-                if (nextLinkJson.has("value") && nextLinkJson.get("value") != null) {
-                    //value.addAll(nextLinkJson.getJSONArray("value"));
-                    for (int i = 0; i < nextLinkJson.getJSONArray("value").length(); i++) {
-                        value.put(nextLinkJson.getJSONArray("value").get(i));
-                    }
-                    LOG.ok("nextLinkJson: {0} ", nextLinkJson);
-                } else {
-                    LOG.info("nextLinkJson contained no value object or the object was null");
-                }
+
+            if (nextLink == null && handler instanceof SyncTokenResultsHandler) {
+                ((SyncTokenResultsHandler) handler).handleResult(followingToken);
             }
-            //values.put("value",value);
-            SyncToken nextLinkSyncToken = new SyncToken(nextDeltaLink);
-            int length = value.length();
-            LOG.info("User JSONArray length for SyncOp: {0}", length);
+            link = nextLink;
+        }
+    }
 
+    /**
+     * Merge the repeated deltas of an object within a sync page, if configured. Pages are coalesced one by one,
+     * the deltas of a page carry the page token, so a resumed sync repeats the whole page anyway.
+     */
+    private JSONArray coalesceDeltas(ObjectProcessing processing, JSONArray value) {
+        if (!configuration.isCoalesceSyncDeltas()) {
+            return value;
+        }
+        return processing.coalesceDeltas(value);
+    }
+
+    /**
+     * Handler of the changed objects of a sync page, see {@link #handleUserDeltas}.
+     */
+    private interface DeltaPageHandler {
+        boolean handle(JSONArray value, SyncToken pageToken, SyncToken followingToken);
+    }
+
+    /**
+     * Handle the user deltas of a sync page. The deltas carry the link of their page, a sync interrupted in the
+     * middle of the page repeats the page. The last delta carries the link following the page, the next page link
+     * or the delta link of the next sync.
+     *
+     * @param userProcessor  Processing of the users
+     * @param value          Users of the page
+     * @param pageToken      Token of the page
+     * @param followingToken Token following the page
+     * @param handler        Sync results handler
+     * @param oo             Operation options
+     * @return <code>false</code> if the handler stopped the sync
+     */
+    private boolean handleUserDeltas(UserProcessing userProcessor, JSONArray value, SyncToken pageToken,
+                                     SyncToken followingToken, SyncResultsHandler handler, OperationOptions oo) {
+        int length = value.length();
+        LOG.info("User JSONArray length for SyncOp: {0}", length);
+
+        // users changed without a manager delta are fetched with the manager, all of the page at once
+        Boolean hasToGetManager = userProcessor.getAttributesToGet(oo).contains("manager.id");
+        Map<String, ConnectorObjectBuilder> fetchedUsers = Collections.emptyMap();
+        if (hasToGetManager) {
+            List<String> fetchedUIDs = new ArrayList<>();
             for (int i = 0; i < length; i++) {
                 JSONObject user = value.getJSONObject(i);
+                if (!userProcessor.isDeleteDelta(user) && user.has(userProcessor.getNameAttribute())
+                        && !containsDeltaItems(userProcessor, user)) {
+                    fetchedUIDs.add(userProcessor.getUIDIfExists(user));
+                }
+            }
+            if (!fetchedUIDs.isEmpty()) {
+                LOG.info("Fetching {0} changed users of the sync page", fetchedUIDs.size());
+                fetchedUsers = userProcessor.evaluateAndFetchAttributesToGet(fetchedUIDs, oo);
+            }
+        }
 
-                String userUID = userProcessor.getUIDIfExists(user);
+        for (int i = 0; i < length; i++) {
+            JSONObject user = value.getJSONObject(i);
 
-                LOG.info("Processing user json object, {0}", user);
+            String userUID = userProcessor.getUIDIfExists(user);
 
-                ConnectorObjectBuilder userConnectorObjectBuilder;
-                SyncDeltaBuilder builder = new SyncDeltaBuilder();
-                builder.setObjectClass(ObjectClass.ACCOUNT);
+            LOG.info("Processing user json object, {0}", user);
 
-                if (userProcessor.isDeleteDelta(user)){
+            ConnectorObjectBuilder userConnectorObjectBuilder;
+            SyncDeltaBuilder builder = new SyncDeltaBuilder();
+            builder.setObjectClass(ObjectClass.ACCOUNT);
 
-                    LOG.info("Sync operation: Processing Delete delta for the User: {0} ", userUID);
+            if (userProcessor.isDeleteDelta(user)){
 
-                    builder.setDeltaType(SyncDeltaType.DELETE);
-                    builder.setUid(new Uid(userUID));
+                LOG.info("Sync operation: Processing Delete delta for the User: {0} ", userUID);
 
-                } else {
+                builder.setDeltaType(SyncDeltaType.DELETE);
+                builder.setUid(new Uid(userUID));
 
-                    LOG.info("Sync operation: Processing Create or Update delta for the User: {0} ", userUID);
-                    if (!userProcessor.isNamePresent(user)){
+            } else {
 
-                        continue;
-                    }
+                LOG.info("Sync operation: Processing Create or Update delta for the User: {0} ", userUID);
+                if (!userProcessor.isNamePresent(user)){
 
+                    continue;
+                }
 
-                    Set<String> deltableItems = userProcessor.getObjectDeltaItems();
-                    AtomicReference<Boolean> fetchedConainsDeltables = new AtomicReference<>(false);
-                    deltableItems.forEach(item -> fetchedConainsDeltables.set(user.has(item)));
 
-                    Boolean hasToGetManager = userProcessor.getAttributesToGet(oo).contains("manager.id");
-                    if (hasToGetManager && !fetchedConainsDeltables.get()) {
+                if (hasToGetManager && !containsDeltaItems(userProcessor, user)) {
 
-                        userConnectorObjectBuilder = userProcessor.
-                                evaluateAndFetchAttributesToGet(new Uid(userUID), oo);
-                    } else {
+                    userConnectorObjectBuilder = fetchedUsers.get(userUID);
+                    if (userConnectorObjectBuilder == null) {
+                        // the deletion comes later in the delta
+                        continue;
+                    }
+                } else {
 
-                        userConnectorObjectBuilder = userProcessor.convertUserJSONObjectToConnectorObject(user);
-                        if (hasToGetManager) {
+                    userConnectorObjectBuilder = userProcessor.convertUserJSONObjectToConnectorObject(user);
+                    if (hasToGetManager) {
 
-                            userProcessor.enhanceConnectorObjectWithDeltaItems(user, userConnectorObjectBuilder);
-                        }
+                        userProcessor.enhanceConnectorObjectWithDeltaItems(user, userConnectorObjectBuilder);
                     }
+                }
 
-                    builder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
-                    builder.setObject(userConnectorObjectBuilder.build());
+                builder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
+                builder.setObject(userConnectorObjectBuilder.build());
 
-                }
+            }
 
-                builder.setToken(nextLinkSyncToken);
+            builder.setToken(i == length - 1 ? followingToken : pageToken);
 
-                LOG.ok("Sync operation -> Object handler execution for the User object {0} ", userUID);
+            LOG.ok("Sync operation -> Object handler execution for the User object {0} ", userUID);
 
-                handler.handle(builder.build());
+            if (!handler.handle(builder.build())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsDeltaItems(UserProcessing userProcessor, JSONObject user) {
+        AtomicReference<Boolean> fetchedConainsDeltables = new AtomicReference<>(false);
+        userProcessor.getObjectDeltaItems().forEach(item -> fetchedConainsDeltables.set(user.has(item)));
+        return fetchedConainsDeltables.get();
+    }
+
+    /**
+     * Handle the group deltas of a sync page, the tokens are assigned the same way as in {@link #handleUserDeltas}.
+     *
+     * @param groupProcessor Processing of the groups
+     * @param value          Groups of the page
+     * @param pageToken      Token of the page
+     * @param followingToken Token following the page
+     * @param handler        Sync results handler
+     * @param oo             Operation options
+     * @return <code>false</code> if the handler stopped the sync
+     */
+    private boolean handleGroupDeltas(GroupProcessing groupProcessor, JSONArray value, SyncToken pageToken,
+                                      SyncToken followingToken, SyncResultsHandler handler, OperationOptions oo) {
+        int length = value.length();
+        LOG.info("Group JSONArray length for SyncOp: {0}", length);
+
+        for (int i = 0; i < length; i++) {
+            JSONObject group = value.getJSONObject(i);
+            String groupUID = group.getString("id");
+
+            SyncDeltaBuilder builder = new SyncDeltaBuilder();
+            builder.setObjectClass(ObjectClass.GROUP);
+
+            if (groupProcessor.isDeleteDelta(group)) {
+
+                LOG.info("Sync operation: Processing Delete delta for the Group: {0} ", groupUID);
+                builder.setDeltaType(SyncDeltaType.DELETE);
+                builder.setUid(new Uid(groupUID));
+            } else {
 
+                LOG.info("Sync operation: Processing Create or Update delta for the Group: {0} ", groupUID);
+                ConnectorObject groupObject = groupProcessor.convertDeltaToConnectorObject(group, oo);
+                if (groupObject == null) {
+                    // the deletion comes later in the delta
+                    continue;
+                }
+                builder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
+                builder.setObject(groupObject);
             }
 
+            builder.setToken(i == length - 1 ? followingToken : pageToken);
 
-        } else {
-            LOG.error("Attribute of type ObjectClass is not supported. Only Account objectclass is supported for SyncOp currently.");
-            throw new UnsupportedOperationException("Attribute of type ObjectClass is not supported. Only Account objectclass is supported for SyncOp currently.");
+            LOG.ok("Sync operation -> Object handler execution for the Group object {0} ", groupUID);
+            if (!handler.handle(builder.build())) {
+                return false;
+            }
         }
-
+        return true;
     }
 
     //TODO remove
@@ -382,6 +486,16 @@ public class MSGraphConnector implements Connector,
             throw new InvalidAttributeValueException("Attribute of type OperationOptions is not provided.");
         }
 
+        query = getGraphEndpoint().getFilterNormalizer().normalize(query);
+        if (query == FilterNormalizer.MATCH_NONE) {
+            LOG.ok("The filter matches no object of the object class: {0}", objectClass.getDisplayNameKey());
+            if (handler instanceof SearchResultsHandler) {
+                // count-only and paged searches still get their (empty) result
+                ((SearchResultsHandler) handler).handleResult(new SearchResult(null, 0));
+            }
+            return;
+        }
+
         ResourceQuery translatedQuery= new ResourceQuery();
         Boolean fetchSpecificObject =false;
 
@@ -414,12 +528,31 @@ public class MSGraphConnector implements Connector,
 
         if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
             UserProcessing userProcessing = new UserProcessing(getGraphEndpoint(), getSchemaTranslator());
+            FilterPlan filterPlan = userProcessing.planFilter(query);
+
+            final String userPrincipalName = fetchSpecificObject ? null : UserProcessing.toDirectlyFetchedName(query);
+            if (userPrincipalName != null) {
+                LOG.ok("Query will fetch specific account with the name: {0}", userPrincipalName);
+                executeSearch(userProcessing, filterPlan, true, handler, options,
+                        (searchHandler, searchOptions) -> userProcessing.executeQueryForUserByName(userPrincipalName,
+                                searchHandler, searchOptions));
+                return;
+            }
+
+            final List<String> userIds = fetchSpecificObject ? null : ObjectProcessing.toUidValues(query);
+            if (userIds != null) {
+                LOG.ok("Query will fetch {0} specific accounts by their uids", userIds.size());
+                executeSearch(userProcessing, filterPlan, true, handler, options,
+                        (searchHandler, searchOptions) -> userProcessing.executeQueryForUserByIds(userIds,
+                                searchHandler, searchOptions));
+                return;
+            }
 
             if(!fetchSpecificObject){
 
-                if(query!=null){
+                if(filterPlan.getPushed()!=null){
 
-                 translatedQuery = query.accept(new FilterHandler(), new ResourceQuery(objectClass,
+                 translatedQuery = filterPlan.getPushed().accept(new FilterHandler(), new ResourceQuery(objectClass,
                         userProcessing.getUIDAttribute(), userProcessing.getNameAttribute()));
 
                 }
@@ -431,17 +564,31 @@ public class MSGraphConnector implements Connector,
                 LOG.ok("The object class for which the filter will be executed: {0}", objectClass.getDisplayNameKey());
             }
 
-            userProcessing.executeQueryForUser(translatedQuery, fetchSpecificObject ,handler, options);
+            final ResourceQuery userQuery = translatedQuery;
+            final boolean fetchSpecificUser = fetchSpecificObject;
+            executeSearch(userProcessing, filterPlan, fetchSpecificUser, handler, options,
+                    (searchHandler, searchOptions) -> userProcessing.executeQueryForUser(userQuery,
+                            fetchSpecificUser, searchHandler, searchOptions));
 
         } else if (objectClass.is(ObjectClass.GROUP_NAME)) {
 
             GroupProcessing groupProcessing = new GroupProcessing(getGraphEndpoint());
+            FilterPlan filterPlan = groupProcessing.planFilter(query);
+
+            final List<String> groupIds = fetchSpecificObject ? null : ObjectProcessing.toUidValues(query);
+            if (groupIds != null) {
+                LOG.ok("Query will fetch {0} specific groups by their uids", groupIds.size());
+                executeSearch(groupProcessing, filterPlan, true, handler, options,
+                        (searchHandler, searchOptions) -> groupProcessing.executeQueryForGroupByIds(groupIds,
+                                searchHandler, searchOptions));
+                return;
+            }
 
             if(!fetchSpecificObject){
 
-                if(query!=null){
+                if(filterPlan.getPushed()!=null){
 
-                    translatedQuery = query.accept(new FilterHandler(), new ResourceQuery(objectClass,
+                    translatedQuery = filterPlan.getPushed().accept(new FilterHandler(), new ResourceQuery(objectClass,
                             groupProcessing.getUIDAttribute(), groupProcessing.getNameAttribute()));
                 }
             }
@@ -451,7 +598,11 @@ public class MSGraphConnector implements Connector,
                 LOG.ok("The object class for which the filter will be executed: {0}", objectClass.getDisplayNameKey());
             }
 
-            groupProcessing.executeQueryForGroup(translatedQuery, fetchSpecificObject, handler, options);
+            final ResourceQuery groupQuery = translatedQuery;
+            final boolean fetchSpecificGroup = fetchSpecificObject;
+            executeSearch(groupProcessing, filterPlan, fetchSpecificGroup, handler, options,
+                    (searchHandler, searchOptions) -> groupProcessing.executeQueryForGroup(groupQuery,
+                            fetchSpecificGroup, searchHandler, searchOptions));
 
         } else if (objectClass.is(LicenseProcessing.OBJECT_CLASS_NAME)) {
             LicenseProcessing licenseProcessing = new LicenseProcessing(getGraphEndpoint(), getSchemaTranslator());
@@ -466,7 +617,10 @@ public class MSGraphConnector implements Connector,
 //                }
 //            }
 
-            licenseProcessing.executeQueryForLicense(query, handler, options);
+            FilterPlan filterPlan = licenseProcessing.planFilter(query);
+            executeSearch(licenseProcessing, filterPlan, false, handler, options,
+                    (searchHandler, searchOptions) -> licenseProcessing.executeQueryForLicense(filterPlan.getPushed(),
+                            searchHandler, searchOptions));
 
         } else if (objectClass.is(RoleProcessing.ROLE_NAME)) {
             RoleProcessing roleProcessing = new RoleProcessing(getGraphEndpoint());
@@ -481,7 +635,10 @@ public class MSGraphConnector implements Connector,
 //                }
 //            }
 
-            roleProcessing.executeQueryForRole(query, handler, options);
+            FilterPlan filterPlan = roleProcessing.planFilter(query);
+            executeSearch(roleProcessing, filterPlan, false, handler, options,
+                    (searchHandler, searchOptions) -> roleProcessing.executeQueryForRole(filterPlan.getPushed(),
+                            searchHandler, searchOptions));
 
         } else {
             LOG.error("Attribute of type ObjectClass is not supported.");
@@ -490,6 +647,39 @@ public class MSGraphConnector implements Connector,
 
     }
 
+    /**
+     * Run the search with the residual filter of the plan evaluated on the listed objects and pass the search
+     * result to the handler. Count-only searches Graph cannot count are counted by listing the matching objects.
+     */
+    private void executeSearch(ObjectProcessing processing, FilterPlan filterPlan, boolean fetchSpecific,
+                               ResultsHandler handler, OperationOptions options,
+                               BiConsumer<ResultsHandler, OperationOptions> search) {
+        final OperationOptions searchOptions = filterPlan.searchOptions(options);
+        final boolean countOnly = ObjectProcessing.isCountOnly(options);
+
+        if (countOnly && (filterPlan.getResidual() != null || fetchSpecific || !processing.isCountSupported())) {
+            LOG.ok("Counting the objects of the count-only search by listing them");
+            final OperationOptions listOptions = new OperationOptionsBuilder(searchOptions)
+                    .setOption(ObjectProcessing.OP_COUNT_ONLY, false).build();
+            processing.countListedObjects(countingHandler ->
+                    search.accept(processing.residualHandler(filterPlan, options, countingHandler), listOptions));
+        } else {
+            search.accept(processing.residualHandler(filterPlan, options, handler), searchOptions);
+        }
+
+        SearchResult result = processing.getSearchResult();
+        if (result == null || !(handler instanceof SearchResultsHandler)) {
+            return;
+        }
+        if (!countOnly && filterPlan.getResidual() != null && result.getRemainingPagedResults() >= 0) {
+            // Graph counted the objects before the residual filter was evaluated
+            result = new SearchResult(result.getPagedResultsCookie(), -1);
+        }
+        LOG.ok("Search result cookie: {0}, remaining results: {1}", result.getPagedResultsCookie(),
+                result.getRemainingPagedResults());
+        ((SearchResultsHandler) handler).handleResult(result);
+    }
+
     @Override
     public void test() {
         final GraphEndpoint endpoint = getGraphEndpoint();
@@ -0,0 +1,113 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.identityconnectors.common.logging.Log;
+import org.json.JSONArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of direct group membership and ownership, keyed by the member (owner) id.
+ * <p>
+ * Built by paging the members (and owners) of every group once, which takes far fewer requests than asking each
+ * user for its memberOf/ownedObjects during a full reconciliation. The index has a bounded lifetime and a cap on
+ * the number of indexed membership links; if the cap is exceeded the index is left incomplete and must not be used.
+ */
+public class MembershipIndex {
+
+    private static final Log LOG = Log.getLog(MembershipIndex.class);
+
+    private static final String GROUPS = "/groups";
+    private static final String SELECT_ID = "$select=id";
+    private static final String ATTR_ID = "id";
+
+    private final Map<String, List<String>> memberOf = new HashMap<>();
+    private final Map<String, List<String>> ownerOf = new HashMap<>();
+    private final boolean withOwners;
+    private final long expiresAt;
+    private boolean complete;
+
+    private MembershipIndex(boolean withOwners, long expiresAt) {
+        this.withOwners = withOwners;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Build the index by scanning members (and optionally owners) of all groups.
+     *
+     * @param endpoint   Graph endpoint
+     * @param withOwners Whether group ownership is indexed as well
+     * @param maxLinks   Maximum number of membership links to index
+     * @param expiresAt  Time (millis) when the index expires
+     * @return Index, check {@link #isComplete()} before use
+     */
+    static MembershipIndex build(GraphEndpoint endpoint, boolean withOwners, int maxLinks, long expiresAt) {
+        final MembershipIndex index = new MembershipIndex(withOwners, expiresAt);
+        final long start = System.currentTimeMillis();
+
+        final JSONArray groups = endpoint.executeListRequest(GROUPS, SELECT_ID, null, true);
+        int links = 0;
+        for (int i = 0; i < groups.length(); i++) {
+            final String groupId = groups.getJSONObject(i).getString(ATTR_ID);
+
+            links += index.indexRelationship(endpoint, groupId, "members", index.memberOf, maxLinks - links);
+            if (withOwners && links <= maxLinks) {
+                links += index.indexRelationship(endpoint, groupId, "owners", index.ownerOf, maxLinks - links);
+            }
+
+            if (links > maxLinks) {
+                LOG.warn("Membership index exceeded the maximum of {0} links, falling back to per-object requests", maxLinks);
+                index.memberOf.clear();
+                index.ownerOf.clear();
+                return index;
+            }
+        }
+
+        index.complete = true;
+        LOG.info("Membership index of {0} groups and {1} links built in {2} ms", groups.length(), links,
+                System.currentTimeMillis() - start);
+        return index;
+    }
+
+    private int indexRelationship(GraphEndpoint endpoint, String groupId, String relationship,
+                                  Map<String, List<String>> target, int remaining) {
+        final int[] count = {0};
+        endpoint.executeListRequest(GROUPS + "/" + groupId + "/" + relationship, SELECT_ID, null, true,
+                (options, related) -> {
+                    target.computeIfAbsent(related.getString(ATTR_ID), k -> new ArrayList<>(4)).add(groupId);
+                    return ++count[0] <= remaining;
+                });
+        return count[0];
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean hasOwners() {
+        return withOwners;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * @param id Member id
+     * @return Ids of groups the object is a direct member of
+     */
+    public List<String> getMemberOf(String id) {
+        return memberOf.getOrDefault(id, Collections.emptyList());
+    }
+
+    /**
+     * @param id Owner id
+     * @return Ids of groups owned by the object
+     */
+    public List<String> getOwnerOf(String id) {
+        return ownerOf.getOrDefault(id, Collections.emptyList());
+    }
+}
@@ -4,15 +4,24 @@ import org.apache.commons.lang3.StringEscapeUtils;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConfigurationException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
 import org.identityconnectors.framework.common.objects.*;
 import org.identityconnectors.framework.common.objects.filter.AttributeFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.OrFilter;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 abstract class ObjectProcessing {
@@ -30,8 +39,23 @@ abstract class ObjectProcessing {
     protected static final String TOP = "$top";
     protected static final String STARTSWITH = "startswith";
     protected static final String O_DELTA = "@delta";
+    protected static final String O_REMOVED = "@removed";
+    // Graph returns at most this many related objects in an expanded relationship
+    protected static final int EXPAND_LIMIT = 20;
+    // operation option of a search returning just the number of objects in the search result
+    static final String OP_COUNT_ONLY = "countOnly";
+    // operation option of a paged search asking for the exact number of results remaining after the first page
+    static final String OP_COUNT_REMAINING = "countRemaining";
+    // objects in flight per saturation thread
+    private static final int SATURATION_WINDOW_PER_THREAD = 4;
+    // chunks of a split query executed at the same time
+    static final int QUERY_CHUNK_THREADS = 4;
+    private static final String ATTR_OBJECT_ID = "id";
     private ICFPostMapper postMapper;
     private GraphEndpoint graphEndpoint;
+    private volatile CachedPlan lastPlan;
+    private SearchResult searchResult;
+    private int pagedResults;
 
     protected ObjectProcessing(GraphEndpoint graphEndpoint, ICFPostMapper postMapper) {
         this.graphEndpoint = graphEndpoint;
@@ -56,67 +80,6 @@ abstract class ObjectProcessing {
         return graphEndpoint.getConfiguration();
     }
 
-    protected void getIfExists(JSONObject object, String attrName, Class<?> type, ConnectorObjectBuilder builder) {
-        if (object.has(attrName) && object.get(attrName) != null && !JSONObject.NULL.equals(object.get(attrName)) && !String.valueOf(object.get(attrName)).isEmpty()) {
-            if (type.equals(String.class)) {
-                addAttr(builder, attrName, String.valueOf(object.get(attrName)));
-            } else if (type.equals(byte[].class)) {
-                addAttr(builder, attrName, java.util.Base64.getDecoder().decode(String.valueOf(object.get(attrName))));
-            } else {
-                addAttr(builder, attrName, object.get(attrName));
-            }
-        }
-    }
-
-    protected void getRoleInheritPermissionsIfExists(JSONObject object, String attrName, Class<?> type, ConnectorObjectBuilder builder) {
-        if (object.has(attrName) && object.get(attrName) != null && !JSONObject.NULL.equals(object.get(attrName)) && !String.valueOf(object.get(attrName)).isEmpty()) {
-            if (type.equals(String.class)) {
-                String attrValue = String.valueOf(object.get(attrName));
-                attrValue = attrValue.replaceFirst("https://graph.microsoft.com/v1.0/\\$metadata#roleManagement/directory/roleDefinitions\\('", "");
-                attrValue = attrValue.replaceFirst("'\\)/inheritsPermissionsFrom", "");
-                addAttr(builder, attrName, attrValue);
-            } else {
-                addAttr(builder, attrName, object.get(attrName));
-            }
-        }
-    }
-
-    protected void getAndRenameIfExists(JSONObject object, String jsonAttrName, Class<?> type, String icfAttrName, ConnectorObjectBuilder builder) {
-        if (object.has(jsonAttrName) && object.get(jsonAttrName) != null && !JSONObject.NULL.equals(object.get(jsonAttrName)) && !String.valueOf(object.get(jsonAttrName)).isEmpty()) {
-            if (type.equals(String.class)) {
-                addAttr(builder, icfAttrName, String.valueOf(object.get(jsonAttrName)));
-            } else {
-                addAttr(builder, icfAttrName, object.get(jsonAttrName));
-            }
-        }
-    }
-
-    protected void getMultiIfExists(JSONObject object, String attrName, ConnectorObjectBuilder builder) {
-        if (object.has(attrName)) {
-            Object valueObject = object.get(attrName);
-            if (valueObject != null && !JSONObject.NULL.equals(valueObject)) {
-                List<String> values = new ArrayList<>();
-                if (valueObject instanceof JSONArray) {
-                    JSONArray objectArray = object.getJSONArray(attrName);
-                    for (int i = 0; i < objectArray.length(); i++) {
-                        if (objectArray.get(i) instanceof JSONObject) {
-                            JSONObject jsonObject = objectArray.getJSONObject(i);
-                            values.add(jsonObject.toString());
-                        } else {
-                            values.add(String.valueOf(objectArray.get(i)));
-                        }
-                    }
-                    builder.addAttribute(attrName, values.toArray());
-                } else {
-                    StringBuilder sb = new StringBuilder();
-                    sb.append("Unsupported value: ").append(valueObject).append(" for attribute name:").append(attrName)
-                            .append(" from: ").append(object);
-                    throw new InvalidAttributeValueException(sb.toString());
-                }
-            }
-        }
-    }
-
     private Object getValueFromItem(JSONObject object, String attrName, Class<?> type) {
         if (object.has(attrName) && object.get(attrName) != null && !JSONObject.NULL.equals(object.get(attrName)) && !String.valueOf(object.get(attrName)).isEmpty()) {
             if (type.equals(String.class))
@@ -148,33 +111,6 @@ abstract class ObjectProcessing {
         }
     }
 
-    protected void getFromItemIfExists(JSONObject object, String attrName, String subAttrName, Class<?> type, ConnectorObjectBuilder builder) {
-        if (object.has(attrName)) {
-            Object valueObject = object.get(attrName);
-            if (valueObject != null) {
-                Object subValue = getValueFromItem((JSONObject) valueObject, subAttrName, type);
-                builder.addAttribute(attrName + "." + subAttrName, subValue);
-            }
-        }
-    }
-
-    protected void getJSONObjectItemIfExists(JSONObject object, String attrName, String subAttrName, Class<?> type, ConnectorObjectBuilder builder) {
-        if (object.has(attrName)) {
-            Object valueObject = object.get(attrName);
-            if (valueObject != null && !JSONObject.NULL.equals(valueObject)) {
-                if (valueObject instanceof JSONObject) {
-                    JSONObject jsonObject = (JSONObject) valueObject;
-
-                    if (subAttrName != null) {
-                        Object value = getValueFromItem(jsonObject, subAttrName, type);
-                        if (value != null)
-                            builder.addAttribute(attrName + "." + subAttrName, value);
-                    }
-                }
-            }
-        }
-    }
-
     protected void getFromArrayIfExists(JSONObject object, String attrName, String subAttrName, Class<?> type, ConnectorObjectBuilder builder) {
 
         getFromArrayIfExists(object, attrName, subAttrName, null, type, builder, false);
@@ -221,42 +157,6 @@ abstract class ObjectProcessing {
         }
     }
 
-    protected void getRolePermissionsIfExists(JSONObject object, String attrName, String subAttrName, Class<?> type, ConnectorObjectBuilder builder) {
-        if (object.has(attrName)) {
-            Object valueObject = object.get(attrName);
-            if (valueObject != null && !JSONObject.NULL.equals(valueObject)) {
-                if (valueObject instanceof JSONArray) {
-                    JSONArray objectArray = (JSONArray) valueObject;
-                    List<String> workingValues = new ArrayList<>();
-                    List<String> returnValues = new ArrayList<>();
-                    objectArray.forEach(it -> {
-                        if (it instanceof JSONObject) {
-                            String subValue = (String) getValueFromItem((JSONObject) it, subAttrName, type);
-                            String conditionValue = (String) getValueFromItem((JSONObject) it, "condition", type);
-                            if (subValue != null)
-                                workingValues.addAll(
-                                        Arrays.asList(
-                                                subValue.replaceAll("\\[", "")
-                                                        .replaceAll("\\]", "")
-                                                        .replaceAll("\"", "")
-                                                        .split(",")
-                                        )
-                                );
-
-                            returnValues.addAll(workingValues.stream().map(value -> {
-                                if (conditionValue != null)
-                                    return conditionValue + "|" + value;
-                                else
-                                    return value;
-                            }).collect(Collectors.toList()));
-                        }
-                    });
-                    builder.addAttribute(attrName + "." + subAttrName, returnValues.toArray());
-                }
-            }
-        }
-    }
-
     protected <T> T addAttr(ConnectorObjectBuilder builder, String attrName, T attrVal) {
         if (attrVal != null) {
             if (attrVal instanceof String) {
@@ -488,13 +388,7 @@ abstract class ObjectProcessing {
     }
 
     boolean isAttributeMultiValues(String attrName) {
-        Map<String, Map<String, AttributeInfo>> connIdSchemaMap = getSchemaTranslator().getConnIdSchemaMap();
-        Map<String, AttributeInfo> attributeInfoMap = connIdSchemaMap.get(type());
-        AttributeInfo attributeInfo = attributeInfoMap.get(attrName);
-        if (attributeInfo != null && attributeInfo.isMultiValued()) {
-            return true;
-        }
-        return false;
+        return getSchemaTranslator().isMultiValued(type(), attrName);
     }
 
     protected abstract boolean handleJSONObject(OperationOptions options, JSONObject object, ResultsHandler handler);
@@ -508,6 +402,421 @@ abstract class ObjectProcessing {
         return (options, jsonObject) -> handleJSONObject(options, jsonObject, handler);
     }
 
+    /**
+     * Whether a search filter can be sent to Graph as a whole, by default if the filter handler translates it.
+     *
+     * @param filter Search filter
+     * @return <code>true</code> if Graph evaluates the filter
+     */
+    protected boolean isSupportedFilter(Filter filter) {
+        return FilterPlan.isTranslatable(filter, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param query Search filter, may be <code>null</code>
+     * @return Split of the filter into the part sent to Graph and the part evaluated by the connector
+     */
+    FilterPlan planFilter(Filter query) {
+        return FilterPlan.split(query, this::isSupportedFilter);
+    }
+
+    /**
+     * @param plan    Filter plan of the search
+     * @param options Operation options of the search, as requested
+     * @param handler Results handler of the search
+     * @return Handler evaluating the residual filter of the plan
+     */
+    ResultsHandler residualHandler(FilterPlan plan, OperationOptions options, ResultsHandler handler) {
+        if (plan.getResidual() == null) {
+            return handler;
+        }
+        return plan.resultsHandler(handler, attributePlan(options, type()).getAttributesToGet());
+    }
+
+    /**
+     * List objects and pass them to the results handler. If more saturation threads are configured, the objects are
+     * saturated concurrently and passed to the handler in the listed order. If the options ask for a page of a paged
+     * search, only that page is listed and the cookie of the next one is kept as the search result.
+     *
+     * @param path        Resource path
+     * @param customQuery Query of the request
+     * @param options     Operation options
+     * @param paging      Whether the resource supports paging
+     * @param handler     Results handler
+     */
+    protected void listObjects(String path, String customQuery, OperationOptions options, boolean paging,
+                               ResultsHandler handler) {
+        if (paging && isPagedSearch(options)) {
+            final String[] cookie = new String[1];
+            handleObjects(handler, jsonObjectHandler -> cookie[0] =
+                    graphEndpoint.executePagedListRequest(path, customQuery, options, (opt, object) -> {
+                        pagedResults++;
+                        return jsonObjectHandler.handle(opt, object);
+                    }));
+            searchResult = new SearchResult(cookie[0], -1);
+            return;
+        }
+
+        // only the listing of the search itself prefetches, the per-object listings fetch their pages on demand
+        final Integer prefetchPages = getConfiguration().getPrefetchPages();
+        final int prefetch = prefetchPages != null ? prefetchPages : 0;
+        handleObjects(handler, jsonObjectHandler ->
+                graphEndpoint.executeListRequest(path, customQuery, options, paging, prefetch, jsonObjectHandler));
+    }
+
+    private static boolean isPagedSearch(OperationOptions options) {
+        return options != null && options.getPageSize() != null && options.getPageSize() > 0;
+    }
+
+    /**
+     * @return Result of the paged or count-only search executed by this processing, <code>null</code> for other
+     * searches
+     */
+    SearchResult getSearchResult() {
+        return searchResult;
+    }
+
+    /**
+     * @return <code>true</code> if the processing counts objects of count-only searches by Graph
+     */
+    protected boolean isCountSupported() {
+        return false;
+    }
+
+    static boolean isCountOnly(OperationOptions options) {
+        return options != null && options.getOptions() != null
+                && Boolean.TRUE.equals(options.getOptions().get(OP_COUNT_ONLY));
+    }
+
+    /**
+     * Count the objects of a count-only search by Graph, without listing them.
+     *
+     * @param path       Resource path
+     * @param countQuery Filter or search of the counted objects, may be <code>null</code>
+     */
+    protected void countObjects(String path, String countQuery) {
+        searchResult = new SearchResult(null, graphEndpoint.executeCountRequest(path, countQuery));
+    }
+
+    /**
+     * Count the objects of a count-only search by listing them, for queries Graph cannot count at once.
+     *
+     * @param listing Lists the objects to the given handler
+     */
+    protected void countListedObjects(Consumer<ResultsHandler> listing) {
+        final int[] count = {0};
+        listing.accept(connectorObject -> {
+            count[0]++;
+            return true;
+        });
+        searchResult = new SearchResult(null, count[0]);
+    }
+
+    /**
+     * Report the number of results remaining after the first page of a paged search. Graph counts the results of
+     * the whole query by an extra request, made only if the search asks for it by the
+     * {@value #OP_COUNT_REMAINING} option. Later pages are resumed from a cookie and their position is not known.
+     *
+     * @param path       Resource path
+     * @param countQuery Filter or search of the listed objects, may be <code>null</code>
+     * @param options    Operation options of the search
+     */
+    protected void countRemainingResults(String path, String countQuery, OperationOptions options) {
+        if (searchResult == null || options.getPagedResultsCookie() != null) {
+            return;
+        }
+        if (searchResult.getRemainingPagedResults() >= 0) {
+            // merged objects of a split query are already counted
+            return;
+        }
+        if (searchResult.getPagedResultsCookie() == null) {
+            searchResult = new SearchResult(null, 0);
+            return;
+        }
+
+        if (options.getOptions() == null || !Boolean.TRUE.equals(options.getOptions().get(OP_COUNT_REMAINING))) {
+            return;
+        }
+
+        final Integer offset = options.getPagedResultsOffset();
+        final int skipped = offset != null && offset > 1 ? offset - 1 : 0;
+        final int total = graphEndpoint.executeCountRequest(path, countQuery);
+        searchResult = new SearchResult(searchResult.getPagedResultsCookie(),
+                Math.max(0, total - skipped - pagedResults));
+    }
+
+    /**
+     * List objects of several queries, which together form one split query. The queries are executed concurrently,
+     * the objects are passed to the results handler in the order of the queries, each object only once. Graph sorts
+     * and pages each query on its own, a sorted or paged search is therefore sorted and paged over the merged objects,
+     * with the position of the next page as the cookie.
+     *
+     * @param path          Resource path
+     * @param customQueries Queries of the requests
+     * @param options       Operation options
+     * @param paging        Whether the resource supports paging
+     * @param handler       Results handler
+     */
+    protected void listChunkedObjects(String path, List<String> customQueries, OperationOptions options,
+                                      boolean paging, ResultsHandler handler) {
+        if (customQueries.size() == 1) {
+            listObjects(path, customQueries.get(0), options, paging, handler);
+            return;
+        }
+
+        LOG.info("Executing {0} query chunks on {1}", customQueries.size(), path);
+        final List<Callable<List<JSONObject>>> chunks = new ArrayList<>(customQueries.size());
+        for (String customQuery : customQueries) {
+            chunks.add(() -> {
+                final List<JSONObject> objects = new ArrayList<>();
+                graphEndpoint.executeListRequest(path, customQuery, options, paging,
+                        (opt, object) -> objects.add(object));
+                return objects;
+            });
+        }
+
+        final SortKey[] sortKeys = options != null ? options.getSortKeys() : null;
+        final boolean sorted = sortKeys != null && sortKeys.length > 0;
+        if (!sorted && !isPagedSearch(options)) {
+            handleChunks(chunks, options, handler);
+            return;
+        }
+
+        final List<ConnectorObject> merged = new ArrayList<>();
+        handleChunks(chunks, options, merged::add);
+        if (sorted) {
+            merged.sort(sortKeyComparator(sortKeys));
+        }
+        if (!isPagedSearch(options)) {
+            for (ConnectorObject object : merged) {
+                if (!handler.handle(object)) {
+                    return;
+                }
+            }
+            return;
+        }
+        handleMergedPage(merged, options, handler);
+    }
+
+    /**
+     * Comparator of connector objects by all the sort keys, by the first value of the sorted attribute. Strings are
+     * compared ignoring case as Graph does, objects without the attribute come last.
+     *
+     * @param sortKeys Sort keys of the search
+     * @return Comparator of the objects
+     */
+    static Comparator<ConnectorObject> sortKeyComparator(SortKey[] sortKeys) {
+        return (first, second) -> {
+            for (SortKey sortKey : sortKeys) {
+                final Object firstValue = firstValue(first, sortKey.getField());
+                final Object secondValue = firstValue(second, sortKey.getField());
+                int result;
+                if (firstValue == null || secondValue == null) {
+                    result = firstValue == null ? (secondValue == null ? 0 : 1) : -1;
+                } else {
+                    result = compareValues(firstValue, secondValue);
+                    if (!sortKey.isAscendingOrder()) {
+                        result = -result;
+                    }
+                }
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static Object firstValue(ConnectorObject object, String attributeName) {
+        final Attribute attribute = object.getAttributeByName(attributeName);
+        if (attribute == null || attribute.getValue() == null || attribute.getValue().isEmpty()) {
+            return null;
+        }
+        return attribute.getValue().get(0);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareValues(Object first, Object second) {
+        if (first instanceof String && second instanceof String) {
+            return String.CASE_INSENSITIVE_ORDER.compare((String) first, (String) second);
+        }
+        if (first instanceof Comparable && first.getClass().isInstance(second)) {
+            return ((Comparable) first).compareTo(second);
+        }
+        return String.valueOf(first).compareTo(String.valueOf(second));
+    }
+
+    /**
+     * Pass the requested page of merged objects to the results handler and keep the search result of the page.
+     */
+    private void handleMergedPage(List<ConnectorObject> merged, OperationOptions options, ResultsHandler handler) {
+        final String cookie = options.getPagedResultsCookie();
+        int from;
+        if (cookie != null) {
+            try {
+                from = Integer.parseInt(cookie);
+            } catch (NumberFormatException e) {
+                throw new InvalidAttributeValueException("Invalid paged results cookie: " + cookie);
+            }
+        } else {
+            final Integer offset = options.getPagedResultsOffset();
+            from = offset != null && offset > 1 ? offset - 1 : 0;
+        }
+        from = Math.max(0, Math.min(from, merged.size()));
+
+        int to = Math.min(merged.size(), from + options.getPageSize());
+        for (int i = from; i < to; i++) {
+            if (!handler.handle(merged.get(i))) {
+                to = i + 1;
+                break;
+            }
+        }
+
+        LOG.ok("Passed merged objects {0}-{1} of {2}", from, to, merged.size());
+        searchResult = new SearchResult(to < merged.size() ? String.valueOf(to) : null, merged.size() - to);
+    }
+
+    /**
+     * List objects by their ids with the directoryObjects/getByIds action, in chunks of at most
+     * {@link GraphEndpoint#GET_BY_IDS_MAX} ids executed concurrently. Ids of objects which do not exist are skipped.
+     *
+     * @param graphType   Graph type of the objects, e.g. <code>user</code>
+     * @param ids         Ids of the objects
+     * @param customQuery Query of the requests, the selector of the listed attributes
+     * @param options     Operation options
+     * @param handler     Results handler
+     */
+    protected void listObjectsByIds(String graphType, Collection<String> ids, String customQuery,
+                                    OperationOptions options, ResultsHandler handler) {
+        final List<String> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        LOG.info("Getting {0} objects of the type {1} by ids", distinct.size(), graphType);
+
+        final List<Callable<List<JSONObject>>> chunks = new ArrayList<>();
+        for (int i = 0; i < distinct.size(); i += GraphEndpoint.GET_BY_IDS_MAX) {
+            final List<String> chunk = distinct.subList(i, Math.min(distinct.size(), i + GraphEndpoint.GET_BY_IDS_MAX));
+            chunks.add(() -> handleJSONArray(graphEndpoint.executeGetByIdsRequest(chunk, graphType, customQuery)));
+        }
+        handleChunks(chunks, options, handler);
+    }
+
+    /**
+     * @param filter Search filter
+     * @return Uids of an OR filter of equalities on the uid, otherwise <code>null</code>
+     */
+    static List<String> toUidValues(Filter filter) {
+        if (!(filter instanceof OrFilter)) {
+            return null;
+        }
+        final Set<String> uids = new LinkedHashSet<>();
+        return collectUidValues(filter, uids) ? new ArrayList<>(uids) : null;
+    }
+
+    private static boolean collectUidValues(Filter filter, Set<String> uids) {
+        if (filter instanceof OrFilter) {
+            for (Filter child : ((OrFilter) filter).getFilters()) {
+                if (!collectUidValues(child, uids)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (!(filter instanceof EqualsFilter)) {
+            return false;
+        }
+        final Attribute attribute = ((EqualsFilter) filter).getAttribute();
+        final List<Object> values = attribute.getValue();
+        if (!Uid.NAME.equals(attribute.getName()) || values == null || values.size() != 1
+                || !(values.get(0) instanceof String)) {
+            return false;
+        }
+        uids.add((String) values.get(0));
+        return true;
+    }
+
+    /**
+     * Execute chunks of one query concurrently and pass their objects to the results handler in the order of
+     * the chunks, each object only once.
+     */
+    private void handleChunks(List<Callable<List<JSONObject>>> chunkCalls, OperationOptions options,
+                              ResultsHandler handler) {
+        if (chunkCalls.isEmpty()) {
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(chunkCalls.size(), QUERY_CHUNK_THREADS), runnable -> {
+                    Thread thread = new Thread(runnable, "msgraph-query-chunk");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            final List<Future<List<JSONObject>>> chunks = new ArrayList<>(chunkCalls.size());
+            for (Callable<List<JSONObject>> chunkCall : chunkCalls) {
+                chunks.add(executor.submit(chunkCall));
+            }
+
+            final Set<String> handled = new HashSet<>();
+            handleObjects(handler, jsonObjectHandler -> {
+                for (Future<List<JSONObject>> chunk : chunks) {
+                    for (JSONObject object : awaitChunk(chunk)) {
+                        final String id = object.optString(ATTR_OBJECT_ID, null);
+                        if ((id == null || handled.add(id)) && !jsonObjectHandler.handle(options, object)) {
+                            return;
+                        }
+                    }
+                }
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<JSONObject> awaitChunk(Future<List<JSONObject>> chunk) {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while waiting for a query chunk", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ConnectorException("Query chunk failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Pass already fetched objects to the results handler, saturated the same way as listed objects.
+     *
+     * @param objects Objects to handle
+     * @param options Operation options
+     * @param handler Results handler
+     */
+    protected void handleObjects(List<JSONObject> objects, OperationOptions options, ResultsHandler handler) {
+        handleObjects(handler, jsonObjectHandler -> {
+            for (JSONObject object : objects) {
+                if (!jsonObjectHandler.handle(options, object)) {
+                    return;
+                }
+            }
+        });
+    }
+
+    private void handleObjects(ResultsHandler handler, Consumer<JSONObjectHandler> source) {
+        final Integer threads = getConfiguration().getSaturationThreads();
+        if (threads == null || threads <= 1) {
+            source.accept(createJSONObjectHandler(handler));
+            return;
+        }
+
+        try (SaturationExecutor executor = new SaturationExecutor(this, handler, threads,
+                threads * SATURATION_WINDOW_PER_THREAD)) {
+            source.accept(executor);
+            executor.finish();
+        }
+    }
+
     protected List<JSONObject> handleJSONArray(JSONArray value) {
         List<JSONObject> objectList = CollectionUtil.newList();
 
@@ -538,12 +847,224 @@ abstract class ObjectProcessing {
         return "$select=" + String.join(",", fields);
     }
 
+    public boolean isDeleteDelta(JSONObject o) {
+
+        if (o.has(O_REMOVED)) {
+
+            LOG.ok("Delta for processed object is {0}", SyncDeltaType.DELETE);
+            return true;
+        }
+
+        LOG.ok("Delta for processed object is {0}", SyncDeltaType.CREATE_OR_UPDATE);
+        return false;
+    }
+
+    /**
+     * @return Delta properties whose items of the same object are merged when deltas are coalesced, other
+     * properties of a later delta replace the earlier ones
+     */
+    protected Set<String> getMergedDeltaProperties() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Coalesce the deltas of a sync page, see {@link #coalesceDeltas(JSONArray, Set)}.
+     *
+     * @param value Deltas of the page
+     * @return Coalesced deltas
+     */
+    public JSONArray coalesceDeltas(JSONArray value) {
+        return coalesceDeltas(value, getMergedDeltaProperties());
+    }
+
+    /**
+     * Merge the deltas of an object returned several times into a single delta of its final state, placed where
+     * the last delta of the object was. Properties of a later delta replace the earlier ones, items of the merged
+     * delta properties are merged by their id, the later item wins. An object whose last delta is a removal is
+     * deleted, earlier changes of it are dropped.
+     *
+     * @param value                 Deltas
+     * @param mergedDeltaProperties Delta properties to merge by item id, e.g. <code>members@delta</code>
+     * @return Coalesced deltas, the same array if no object repeats
+     */
+    static JSONArray coalesceDeltas(JSONArray value, Set<String> mergedDeltaProperties) {
+        final Map<String, JSONObject> coalesced = new LinkedHashMap<>();
+        for (int i = 0; i < value.length(); i++) {
+            final JSONObject delta = value.getJSONObject(i);
+            final String id = delta.optString(ATTR_OBJECT_ID, null);
+            if (id == null) {
+                coalesced.put("#" + i, delta);
+                continue;
+            }
+
+            // removed and put again to move the object to the position of its last delta
+            final JSONObject previous = coalesced.remove(id);
+            coalesced.put(id, previous == null || delta.has(O_REMOVED)
+                    ? delta : mergeDeltas(previous, delta, mergedDeltaProperties));
+        }
+
+        if (coalesced.size() == value.length()) {
+            return value;
+        }
+        LOG.ok("Coalesced {0} deltas to {1}", value.length(), coalesced.size());
+        return new JSONArray(coalesced.values());
+    }
+
+    private static JSONObject mergeDeltas(JSONObject previous, JSONObject delta, Set<String> mergedDeltaProperties) {
+        final JSONObject merged = previous.has(O_REMOVED) ? new JSONObject() : new JSONObject(previous, JSONObject.getNames(previous));
+        for (String key : delta.keySet()) {
+            final JSONArray previousItems = merged.optJSONArray(key);
+            final JSONArray items = delta.optJSONArray(key);
+            if (mergedDeltaProperties.contains(key) && previousItems != null && items != null) {
+                final Map<String, JSONObject> mergedItems = new LinkedHashMap<>();
+                for (JSONArray array : Arrays.asList(previousItems, items)) {
+                    for (int i = 0; i < array.length(); i++) {
+                        final JSONObject item = array.getJSONObject(i);
+                        mergedItems.remove(item.getString(ATTR_OBJECT_ID));
+                        mergedItems.put(item.getString(ATTR_OBJECT_ID), item);
+                    }
+                }
+                merged.put(key, new JSONArray(mergedItems.values()));
+            } else {
+                merged.put(key, delta.get(key));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Create a selector clause for GraphAPI attributes to list, narrowed to the attributes requested in the options
+     *
+     * @param options     Operation options
+     * @param attrs       Candidate attributes
+     * @param identifiers Attributes which are always selected
+     * @return Selector clause
+     */
+    protected String projectedSelector(OperationOptions options, String[] attrs, String... identifiers) {
+        return attributePlan(options, type()).selector(postMapper, attrs, identifiers);
+    }
+
+    /**
+     * Get the attribute plan of the operation. The plan of the last options seen is kept by this (per-operation)
+     * processing instance, so repeated per-object checks don't even hit the plan cache. The options and their plan
+     * are held together in one immutable holder, as the per-object checks may run on several threads.
+     *
+     * @param options Operation options
+     * @param type    Object class type
+     * @return Attribute plan
+     */
+    protected AttributePlan attributePlan(OperationOptions options, String type) {
+        CachedPlan cached = lastPlan;
+        if (cached == null || options != cached.options || !type.equals(cached.plan.getType())) {
+            cached = new CachedPlan(options, getSchemaTranslator().getAttributePlan(type, options));
+            lastPlan = cached;
+        }
+        return cached.plan;
+    }
+
+    private static final class CachedPlan {
+        private final OperationOptions options;
+        private final AttributePlan plan;
+
+        private CachedPlan(OperationOptions options, AttributePlan plan) {
+            this.options = options;
+            this.plan = plan;
+        }
+    }
+
+    /**
+     * Create an order by clause from the sort keys of the operation. Graph sorts by a single property, other sort
+     * keys are not pushed and the results are returned unsorted. Filtered and searched results are sorted in
+     * advanced queries only, the clause requests the count then.
+     *
+     * @param options       Operation options
+     * @param sortable      Graph properties supporting $orderby
+     * @param nameAttribute Graph property of the ConnId name
+     * @param query         Filter or search the clause is appended to, may be <code>null</code>
+     * @return Order by clause prefixed with '&amp;' or empty string
+     */
+    protected String orderByClause(OperationOptions options, Set<String> sortable, String nameAttribute,
+                                   String query) {
+        final SortKey[] sortKeys = options != null ? options.getSortKeys() : null;
+        if (sortKeys == null || sortKeys.length == 0) {
+            return "";
+        }
+
+        String field = sortKeys[0].getField();
+        if (Name.NAME.equals(field)) {
+            field = nameAttribute;
+        }
+        if (sortKeys.length > 1 || !sortable.contains(field)) {
+            LOG.warn("Sorting by {0} is not supported by Graph, results are not sorted", Arrays.toString(sortKeys));
+            return "";
+        }
+
+        final StringBuilder clause = new StringBuilder("&$orderby=").append(field);
+        if (!sortKeys[0].isAscendingOrder()) {
+            clause.append(" desc");
+        }
+        if (query != null && !query.contains("$count")) {
+            clause.append("&$count=true");
+        }
+        return clause.toString();
+    }
+
+    /**
+     * Create an expand clause for a relationship selecting ids of the related objects only, if expanding relationships
+     * is enabled. Advanced queries ($search, $count) don't support $expand, no clause is created for them.
+     *
+     * @param relationship Relationship to expand
+     * @param query        Query the clause is appended to, may be <code>null</code>
+     * @return Expand clause prefixed with '&amp;' or empty string
+     */
+    protected String expandClause(String relationship, String query) {
+        if (!getConfiguration().isExpandRelationships()) {
+            return "";
+        }
+        return singleExpandClause(relationship, query);
+    }
+
+    /**
+     * Create an expand clause for a single-valued relationship selecting the id of the related object only. Such
+     * expansion is never truncated, it is therefore created regardless of the expansion of relationships.
+     *
+     * @param relationship Relationship to expand
+     * @param query        Query the clause is appended to, may be <code>null</code>
+     * @return Expand clause prefixed with '&amp;' or empty string
+     */
+    protected static String singleExpandClause(String relationship, String query) {
+        if (query != null && (query.contains("$search") || query.contains("$count"))) {
+            return "";
+        }
+        return "&$expand=" + relationship + "($select=id)";
+    }
+
+    /**
+     * Get an inlined relationship of the object, if it was expanded and the expansion was not truncated by Graph.
+     *
+     * @param object       Object which may contain the expanded relationship
+     * @param relationship Relationship name
+     * @return Expanded related objects or <code>null</code> if the relationship has to be fetched separately
+     */
+    protected JSONArray getCompleteExpansion(JSONObject object, String relationship) {
+        final Object expanded = object.opt(relationship);
+        if (!(expanded instanceof JSONArray)) {
+            return null;
+        }
+        final JSONArray related = (JSONArray) expanded;
+        if (related.length() >= EXPAND_LIMIT) {
+            LOG.ok("Expansion of {0} hit the limit of {1} objects, fetching it separately", relationship, EXPAND_LIMIT);
+            return null;
+        }
+        return related;
+    }
+
     protected boolean shouldSaturate(OperationOptions options, String type, String attr) {
-        return !Boolean.TRUE.equals(options.getAllowPartialAttributeValues()) && getSchemaTranslator().containsToGet(type, options, attr);
+        return attributePlan(options, type).shouldSaturate(attr);
     }
 
     protected void incompleteIfNecessary(OperationOptions options, String type, String attr, ConnectorObjectBuilder builder) {
-        if (Boolean.TRUE.equals(options.getAllowPartialAttributeValues()) && getSchemaTranslator().containsToGet(type, options, attr)) {
+        if (attributePlan(options, type).isIncomplete(attr)) {
             AttributeBuilder attrBuilder = new AttributeBuilder();
             attrBuilder.setName(attr).setAttributeValueCompleteness(AttributeValueCompleteness.INCOMPLETE);
             attrBuilder.addValue(Collections.EMPTY_LIST);
@@ -0,0 +1,163 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.apache.http.client.methods.HttpGet;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.evolveum.polygon.connector.msgraphapi.ObjectProcessing.LOG;
+
+/**
+ * Reader of the pages of a list request, following <code>@odata.nextLink</code>.
+ * <p>
+ * With a positive prefetch depth the pages are fetched and parsed on a separate thread and handed over through a
+ * bounded queue, so that the next pages are on their way while the objects of the current page are handled. The
+ * queue is the backpressure: the fetching thread waits once <code>prefetch</code> pages are not consumed yet.
+ * Without prefetch the pages are fetched on demand by the calling thread.
+ */
+class PageReader implements AutoCloseable {
+
+    private static final Object END = new Object();
+    // how often a fetching thread waiting for the consumer checks whether the reader was closed
+    private static final long HANDOVER_POLL_MILLIS = 100;
+
+    private final GraphEndpoint endpoint;
+    private final BlockingQueue<Object> queue;
+    private final Thread fetcher;
+    private final AtomicLong fetchNanos = new AtomicLong();
+    private long waitNanos;
+    private volatile int pages;
+    private volatile boolean closed;
+    private URI next;
+    private boolean done;
+
+    PageReader(GraphEndpoint endpoint, URI first, int prefetch) {
+        this.endpoint = endpoint;
+        this.next = first;
+
+        if (prefetch > 0) {
+            this.queue = new ArrayBlockingQueue<>(prefetch);
+            this.fetcher = new Thread(this::prefetch, "msgraph-page-reader");
+            this.fetcher.setDaemon(true);
+            this.fetcher.start();
+        } else {
+            this.queue = null;
+            this.fetcher = null;
+        }
+    }
+
+    /**
+     * @return Next page or <code>null</code> if there are no more pages
+     */
+    JSONObject next() {
+        if (done) {
+            return null;
+        }
+        if (queue == null) {
+            if (next == null) {
+                done = true;
+                return null;
+            }
+            return fetch();
+        }
+
+        final Object page;
+        final long start = System.nanoTime();
+        try {
+            page = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while waiting for the next page", e);
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+
+        if (page == END) {
+            done = true;
+            return null;
+        }
+        if (page instanceof RuntimeException) {
+            done = true;
+            throw (RuntimeException) page;
+        }
+        return (JSONObject) page;
+    }
+
+    private void prefetch() {
+        Object page;
+        do {
+            try {
+                page = next != null ? fetch() : END;
+            } catch (RuntimeException e) {
+                // the consumer rethrows the failure after the pages fetched before it
+                page = e;
+            }
+            if (!handOver(page)) {
+                LOG.ok("Page prefetch stopped");
+                return;
+            }
+        } while (page instanceof JSONObject);
+    }
+
+    /**
+     * Put a fetched page to the queue. The interruption of a closing reader may be swallowed by the request
+     * (e.g. while waiting for the API call limit), so the closed flag is checked as well.
+     *
+     * @return <code>false</code> if the reader was closed
+     */
+    private boolean handOver(Object page) {
+        try {
+            while (!closed) {
+                if (queue.offer(page, HANDOVER_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.ok("Page handover interrupted");
+        }
+        return false;
+    }
+
+    private JSONObject fetch() {
+        final long start = System.nanoTime();
+        final JSONObject response = endpoint.callRequest(new HttpGet(next), true);
+        fetchNanos.addAndGet(System.nanoTime() - start);
+        pages++;
+
+        if (endpoint.hasNextLink(response)) {
+            String nextLink = endpoint.getNextLink(response);
+            LOG.info("nextLink: {0}", nextLink);
+            next = URI.create(nextLink);
+        } else {
+            LOG.info("No nextLink defined, final page");
+            next = null;
+        }
+        return response;
+    }
+
+    int getPages() {
+        return pages;
+    }
+
+    long getFetchMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fetchNanos.get());
+    }
+
+    long getWaitMillis() {
+        return queue == null ? getFetchMillis() : TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (fetcher != null) {
+            fetcher.interrupt();
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.identityconnectors.common.logging.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of the directory role definitions, loaded by a single list request.
+ * <p>
+ * Role definitions change rarely, but are read on every role query and for every role assignment of a user. The
+ * cache has a bounded lifetime and is not created for tenants with more role definitions than the configured size.
+ * Lookups return deep copies, so that saturation of the returned objects does not change the cached ones. The
+ * connector does not create or delete role definitions, it drops the cache when it updates a role; roles created or
+ * deleted outside of the connector are visible once the cache expires.
+ */
+public class RoleDefinitionCache {
+
+    private static final Log LOG = Log.getLog(RoleDefinitionCache.class);
+
+    private static final String ROLE_DEFINITIONS = "/roleManagement/directory/roleDefinitions";
+    private static final String ATTR_ID = "id";
+    private static final String ATTR_DISPLAY_NAME = "displayName";
+
+    private final List<JSONObject> roles;
+    private final Map<String, JSONObject> rolesById;
+    private final long expiresAt;
+
+    private RoleDefinitionCache(List<JSONObject> roles, long expiresAt) {
+        this.roles = Collections.unmodifiableList(roles);
+        this.expiresAt = expiresAt;
+
+        Map<String, JSONObject> byId = new HashMap<>(roles.size() * 2);
+        for (JSONObject role : roles) {
+            byId.put(role.getString(ATTR_ID), role);
+        }
+        this.rolesById = byId;
+    }
+
+    /**
+     * Load all role definitions.
+     *
+     * @param endpoint  Graph endpoint
+     * @param maxSize   Maximum number of cached role definitions
+     * @param expiresAt Time (millis) when the cache expires
+     * @return Cache or <code>null</code> if there are more role definitions than the maximum size
+     */
+    static RoleDefinitionCache build(GraphEndpoint endpoint, int maxSize, long expiresAt) {
+        // Paging is not supported
+        final JSONArray value = endpoint.executeListRequest(ROLE_DEFINITIONS, null, null, false);
+        if (value.length() > maxSize) {
+            LOG.warn("Found {0} role definitions, more than the maximum of {1} cached ones", value.length(), maxSize);
+            return null;
+        }
+
+        final List<JSONObject> roles = new ArrayList<>(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            roles.add(value.getJSONObject(i));
+        }
+        LOG.info("Cached {0} role definitions", roles.size());
+        return new RoleDefinitionCache(roles, expiresAt);
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * @param id Role definition id
+     * @return Role definition or <code>null</code> if not cached
+     */
+    public JSONObject getById(String id) {
+        final JSONObject role = rolesById.get(id);
+        return role != null ? copy(role) : null;
+    }
+
+    /**
+     * @param name Display name, compared ignoring case as Graph does
+     * @return Matching role definitions
+     */
+    public List<JSONObject> getByName(String name) {
+        final List<JSONObject> result = new ArrayList<>(1);
+        for (JSONObject role : roles) {
+            if (name.equalsIgnoreCase(role.optString(ATTR_DISPLAY_NAME, null))) {
+                result.add(copy(role));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return All role definitions
+     */
+    public List<JSONObject> getAll() {
+        final List<JSONObject> result = new ArrayList<>(roles.size());
+        for (JSONObject role : roles) {
+            result.add(copy(role));
+        }
+        return result;
+    }
+
+    private static JSONObject copy(JSONObject role) {
+        return (JSONObject) copyValue(role);
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof JSONObject) {
+            final JSONObject object = (JSONObject) value;
+            final JSONObject copy = new JSONObject();
+            for (String key : object.keySet()) {
+                copy.put(key, copyValue(object.get(key)));
+            }
+            return copy;
+        }
+        if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            final JSONArray copy = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                copy.put(copyValue(array.get(i)));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
@@ -4,7 +4,6 @@ import org.apache.http.client.methods.*;
 import org.apache.http.client.utils.URIBuilder;
 import org.identityconnectors.framework.common.objects.*;
 import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
-import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
 import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.json.JSONArray;
@@ -39,6 +38,15 @@ public class RoleProcessing extends ObjectProcessing {
 
     private static final String ATTR_MEMBERS = "members";
 
+    private static final JSONObjectMapper ROLE_MAPPER = JSONObjectMapper.builder()
+            .single(String.class, ATTR_DESCRIPTION, ATTR_TEMPLATE_ID, ATTR_VERSION)
+            .single(Boolean.class, ATTR_IS_BUILT_IN, ATTR_IS_ENABLED)
+            .inheritPermissions(ATTR_INHERIT_PERMISSIONS_FROM_ODATA_CONTEXT)
+            .rolePermissions(ATTR_ROLE_PERMISSIONS, ATTR_ALLOWED_RESOURCE_ACTIONS)
+            .array(ATTR_INHERIT_PERMISSIONS_FROM, ATTR_ID, String.class)
+            .multi(ATTR_RESOURCE_SCOPES, ATTR_MEMBERS)
+            .build();
+
     public RoleProcessing(GraphEndpoint graphEndpoint) {
         super(graphEndpoint, ICFPostMapper.builder().build());
     }
@@ -53,6 +61,20 @@ public class RoleProcessing extends ObjectProcessing {
         return ROLE_NAME;
     }
 
+    /**
+     * Role definitions are queried by id, display name and membership only.
+     */
+    @Override
+    protected boolean isSupportedFilter(Filter filter) {
+        if (filter instanceof EqualsFilter) {
+            final Attribute attribute = ((EqualsFilter) filter).getAttribute();
+            return attribute instanceof Uid || attribute instanceof Name
+                    || ATTR_DISPLAY_NAME.equals(attribute.getName());
+        }
+        // Graph matches display names by their prefix only, contains is evaluated by the connector
+        return filter instanceof ContainsAllValuesFilter;
+    }
+
     @Override
     protected ObjectClassInfo objectClassInfo() {
         ObjectClassInfoBuilder roleObjClassBuilder = new ObjectClassInfoBuilder();
@@ -131,6 +153,7 @@ public class RoleProcessing extends ObjectProcessing {
                 addOrRemoveMember(uid, attrDelta, ROLE_ASSIGNMENT, options);
             }
         }
+        getGraphEndpoint().invalidateRoleDefinitionCache();
         return null;
     }
 
@@ -216,6 +239,10 @@ public class RoleProcessing extends ObjectProcessing {
     public void executeQueryForRole(Filter query, ResultsHandler handler, OperationOptions options) {
         LOG.info("executeQueryForRole() Query: {0}", query);
         final GraphEndpoint endpoint = getGraphEndpoint();
+        final RoleDefinitionCache cache = endpoint.getRoleDefinitionCache();
+        if (cache != null && executeCachedQueryForRole(cache, query, handler, options)) {
+            return;
+        }
 
         if (query instanceof EqualsFilter) {
             final EqualsFilter equalsFilter = (EqualsFilter) query;
@@ -243,22 +270,12 @@ public class RoleProcessing extends ObjectProcessing {
                 }
                 final String customQuery = "$filter=" + ATTR_DISPLAY_NAME + " eq '" + nameValue + "'";
                 // Paging is not supported
-                endpoint.executeListRequest(ROLES, customQuery, options, false, createJSONObjectHandler(handler));
+                listObjects(ROLES, customQuery, options, false, handler);
             } else if (ATTR_DISPLAY_NAME.equals(attributeName)) {
                 final String attributeValue = getAttributeFirstValue(equalsFilter);
                 final String customQuery = "$filter=" + attributeName + " eq '" + attributeValue + "'";
                 // Paging is not supported
-                endpoint.executeListRequest(ROLES, customQuery, options, false, createJSONObjectHandler(handler));
-            }
-        } else if (query instanceof ContainsFilter) {
-            LOG.info("Query is instance of ContainsFilter: {0}", query);
-            final ContainsFilter containsFilter = (ContainsFilter) query;
-            final String attributeName = containsFilter.getAttribute().getName();
-            final String attributeValue = getAttributeFirstValue(containsFilter);
-            if (Arrays.asList(ATTR_DISPLAY_NAME).contains(attributeName)) {
-                String customQuery = "$filter=" + STARTSWITH + "(" + attributeName + ",'" + attributeValue + "')";
-                // Paging is not supported
-                endpoint.executeListRequest(ROLES, customQuery, options, false, createJSONObjectHandler(handler));
+                listObjects(ROLES, customQuery, options, false, handler);
             }
         } else if (query instanceof ContainsAllValuesFilter) {
             LOG.info("[QUERY] - ContainsAllValuesFilter - query: {0}", query);
@@ -279,8 +296,56 @@ public class RoleProcessing extends ObjectProcessing {
         } else if (query == null) {
             LOG.info("Query is null");
             // Paging is not supported
-            endpoint.executeListRequest(ROLES, null, options, false, createJSONObjectHandler(handler));
+            listObjects(ROLES, null, options, false, handler);
+        }
+    }
+
+    /**
+     * Answer the query from the role definition cache.
+     *
+     * @return <code>false</code> if the query is not supported by the cache and has to be sent to Graph
+     */
+    private boolean executeCachedQueryForRole(RoleDefinitionCache cache, Filter query, ResultsHandler handler,
+                                              OperationOptions options) {
+        if (query instanceof EqualsFilter) {
+            final EqualsFilter equalsFilter = (EqualsFilter) query;
+            final Attribute attribute = equalsFilter.getAttribute();
+            if (attribute instanceof Uid) {
+                final String uid = ((Uid) attribute).getUidValue();
+                if (uid == null) {
+                    invalidAttributeValue("Uid", query);
+                }
+                final JSONObject role = cache.getById(uid);
+                if (role == null) {
+                    // possibly created after the cache was loaded
+                    return false;
+                }
+                handleJSONObject(options, role, handler);
+                return true;
+            }
+            if (attribute instanceof Name || ATTR_DISPLAY_NAME.equals(attribute.getName())) {
+                handleObjects(cache.getByName(getAttributeFirstValue(equalsFilter)), options, handler);
+                return true;
+            }
+        } else if (query instanceof ContainsAllValuesFilter) {
+            final String principalId = getAttributeFirstValue((ContainsAllValuesFilter) query);
+            final List<JSONObject> roles = new ArrayList<>();
+            listUserRoleMembership(options, principalId, (opt, object) -> {
+                final String roleUID = object.getString("roleDefinitionId");
+                JSONObject role = cache.getById(roleUID);
+                if (role == null) {
+                    role = getGraphEndpoint().executeGetRequest(ROLES + "/" + roleUID, null, options);
+                }
+                roles.add(role);
+                return true;
+            });
+            handleObjects(roles, options, handler);
+            return true;
+        } else if (query == null) {
+            handleObjects(cache.getAll(), options, handler);
+            return true;
         }
+        return false;
     }
 
     /**
@@ -354,21 +419,7 @@ public class RoleProcessing extends ObjectProcessing {
         getUIDIfExists(role, ATTR_ID, builder);
         getNAMEIfExists(role, ATTR_DISPLAY_NAME, builder);
 
-        // single valued
-        getIfExists(role, ATTR_DESCRIPTION, String.class, builder);
-        getIfExists(role, ATTR_IS_BUILT_IN, Boolean.class, builder);
-        getIfExists(role, ATTR_IS_ENABLED, Boolean.class, builder);
-        getIfExists(role, ATTR_TEMPLATE_ID, String.class, builder);
-        getIfExists(role, ATTR_VERSION, String.class, builder);
-        getRoleInheritPermissionsIfExists(role, ATTR_INHERIT_PERMISSIONS_FROM_ODATA_CONTEXT, String.class, builder);
-
-        // specific item in the array
-        getRolePermissionsIfExists(role, ATTR_ROLE_PERMISSIONS, ATTR_ALLOWED_RESOURCE_ACTIONS, String.class, builder);
-        getFromArrayIfExists(role, ATTR_INHERIT_PERMISSIONS_FROM, ATTR_ID, String.class, builder);
-
-        // multivalued
-        getMultiIfExists(role, ATTR_RESOURCE_SCOPES, builder);
-        getMultiIfExists(role, ATTR_MEMBERS, builder);
+        ROLE_MAPPER.map(role, builder);
 
         return builder;
     }
@@ -0,0 +1,119 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handler of listed objects running their saturation and conversion on a bounded worker pool.
+ * <p>
+ * Connector objects are passed to the results handler on the listing thread in the order the objects were listed.
+ * At most <code>window</code> objects are in flight, once the window is full the listing thread waits for the oldest
+ * one. When the results handler asks to stop, the outstanding work is cancelled.
+ */
+class SaturationExecutor implements ObjectProcessing.JSONObjectHandler, AutoCloseable {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final ObjectProcessing processing;
+    private final ResultsHandler handler;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Future<List<ConnectorObject>>> inFlight = new ArrayDeque<>();
+    private boolean stopped;
+
+    SaturationExecutor(ObjectProcessing processing, ResultsHandler handler, int threads, int window) {
+        this.processing = processing;
+        this.handler = handler;
+        this.window = window;
+
+        final String prefix = "msgraph-saturation-" + POOL_NUMBER.incrementAndGet() + "-";
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public boolean handle(OperationOptions options, JSONObject object) {
+        if (stopped) {
+            return false;
+        }
+
+        inFlight.add(executor.submit(() -> {
+            final List<ConnectorObject> converted = new ArrayList<>(1);
+            processing.handleJSONObject(options, object, converted::add);
+            return converted;
+        }));
+
+        return inFlight.size() < window || emitOldest();
+    }
+
+    /**
+     * Pass the remaining objects to the results handler, to be called once listing is done.
+     *
+     * @return <code>false</code> if the results handler asked to stop
+     */
+    boolean finish() {
+        while (!inFlight.isEmpty()) {
+            if (!emitOldest()) {
+                return false;
+            }
+        }
+        return !stopped;
+    }
+
+    private boolean emitOldest() {
+        for (ConnectorObject connectorObject : await(inFlight.poll())) {
+            if (!handler.handle(connectorObject)) {
+                stopped = true;
+                cancel();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<ConnectorObject> await(Future<List<ConnectorObject>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new ConnectorException("Interrupted while waiting for object saturation", e);
+        } catch (ExecutionException e) {
+            cancel();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ConnectorException("Object saturation failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void cancel() {
+        for (Future<List<ConnectorObject>> future : inFlight) {
+            future.cancel(true);
+        }
+        inFlight.clear();
+    }
+
+    @Override
+    public void close() {
+        cancel();
+        executor.shutdownNow();
+    }
+}
@@ -13,6 +13,16 @@ public class SchemaTranslator {
     private final Schema rawConnIdSchema;
     private final Map<String, Map<String, AttributeInfo>> connIdSchema;
     private static final Log LOG = Log.getLog(SchemaTranslator.class);
+    private static final int PLAN_CACHE_SIZE = 64;
+    private final Map<String, Set<String>> returnedByDefaultAttributes;
+    private final Map<String, Set<String>> multiValuedAttributes;
+    private final Map<PlanKey, AttributePlan> planCache = Collections.synchronizedMap(
+            new LinkedHashMap<PlanKey, AttributePlan>(PLAN_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<PlanKey, AttributePlan> eldest) {
+                    return size() > PLAN_CACHE_SIZE;
+                }
+            });
 
     public SchemaTranslator(GraphEndpoint graphEndpoint) {
         SchemaBuilder schemaBuilder = new SchemaBuilder(MSGraphConnector.class);
@@ -28,10 +38,16 @@ public class SchemaTranslator {
 
         schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildAttributesToGet(), SearchOp.class);
         schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildReturnDefaultAttributes(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPageSize(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsCookie(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsOffset(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildSortKeys(), SearchOp.class);
 
         rawConnIdSchema = schemaBuilder.build();
 
         Map<String, Map<String, AttributeInfo>> objectClasses = new HashMap<>();
+        Map<String, Set<String>> returnedByDefault = new HashMap<>();
+        Map<String, Set<String>> multiValued = new HashMap<>();
 
         for (ObjectClassInfo ocInfo : rawConnIdSchema.getObjectClassInfo()) {
             Map<String, AttributeInfo> attrs = new HashMap<>();
@@ -39,9 +55,16 @@ public class SchemaTranslator {
                 attrs.put(info.getName(), info);
             }
             objectClasses.put(ocInfo.getType(), Collections.unmodifiableMap(attrs));
+            returnedByDefault.put(ocInfo.getType(), toReturnedByDefaultAttributesSet(attrs));
+            multiValued.put(ocInfo.getType(), attrs.values().stream()
+                    .filter(AttributeInfo::isMultiValued)
+                    .map(AttributeInfo::getName)
+                    .collect(Collectors.toSet()));
         }
 
         connIdSchema = Collections.unmodifiableMap(objectClasses);
+        returnedByDefaultAttributes = Collections.unmodifiableMap(returnedByDefault);
+        multiValuedAttributes = Collections.unmodifiableMap(multiValued);
     }
 
     public Schema getConnIdSchema() {
@@ -53,8 +76,10 @@ public class SchemaTranslator {
     }
 
     public String[] filter(String type, OperationOptions options, String... attrs) {
-        Set<String> returnedAttributes = getAttributesToGet(type, options);
+        return filter(getAttributesToGet(type, options), attrs);
+    }
 
+    static String[] filter(Set<String> returnedAttributes, String... attrs) {
         if (returnedAttributes.isEmpty()) {
             return attrs;
         }
@@ -70,26 +95,64 @@ public class SchemaTranslator {
                 .toArray(String[]::new);
     }
 
-    public Set<String> getAttributesToGet(String type, OperationOptions options) {
+    /**
+     * Create a selector clause for the given attributes, narrowed to the attributes requested by the operation
+     * options. Identifiers are always selected, requested ICF attributes are translated through the post-mapper.
+     * The clause is cached in the attribute plan of the options.
+     *
+     * @param type        Object class type
+     * @param options     Operation options
+     * @param postMapper  Post-mapper of the object class
+     * @param attrs       Candidate attributes to select
+     * @param identifiers Attributes selected regardless of the options
+     * @return Selector clause
+     */
+    public String selector(String type, OperationOptions options, ICFPostMapper postMapper, String[] attrs,
+                           String... identifiers) {
+        return getAttributePlan(type, options).selector(postMapper, attrs, identifiers);
+    }
+
+    /**
+     * Get the attribute plan for the operation options, plans are kept per object class and attribute set signature
+     * in a small LRU cache.
+     *
+     * @param type    Object class type
+     * @param options Operation options
+     * @return Attribute plan
+     */
+    public AttributePlan getAttributePlan(String type, OperationOptions options) {
         if (!connIdSchema.containsKey(type)) {
             throw new ConnectorException("Invalid ObjectClass type: " + type);
         }
 
-        Set<String> attributesToGet = new HashSet<>();
-        if (Boolean.TRUE.equals(options.getReturnDefaultAttributes())) {
-            attributesToGet.addAll(toReturnedByDefaultAttributesSet(connIdSchema.get(type)));
-        }
-        if (options.getAttributesToGet() != null) {
-            for (String a : options.getAttributesToGet()) {
-                attributesToGet.add(a);
+        final PlanKey key = new PlanKey(type, options);
+        AttributePlan plan = planCache.get(key);
+        if (plan == null) {
+            Set<String> attributesToGet = new HashSet<>();
+            if (key.returnDefaultAttributes) {
+                attributesToGet.addAll(returnedByDefaultAttributes.get(type));
             }
+            if (key.attributesToGet != null) {
+                Collections.addAll(attributesToGet, key.attributesToGet);
+            }
+            plan = new AttributePlan(type, attributesToGet, key.allowPartialAttributeValues);
+            planCache.put(key, plan);
+            LOG.ok("Created attribute plan for {0}: {1}", type, attributesToGet);
         }
-        return attributesToGet;
+        return plan;
+    }
+
+    public Set<String> getAttributesToGet(String type, OperationOptions options) {
+        return new HashSet<>(getAttributePlan(type, options).getAttributesToGet());
     }
 
     public boolean containsToGet(String type, OperationOptions options, String attr) {
-        Set<String> returnedAttributes = getAttributesToGet(type, options);
-        return returnedAttributes.contains(attr);
+        return getAttributePlan(type, options).contains(attr);
+    }
+
+    public boolean isMultiValued(String type, String attr) {
+        Set<String> multiValued = multiValuedAttributes.get(type);
+        return multiValued != null && multiValued.contains(attr);
     }
 
     private static Set<String> toReturnedByDefaultAttributesSet(Map<String, AttributeInfo> attrs) {
@@ -98,4 +161,36 @@ public class SchemaTranslator {
                 .map(entry -> entry.getKey())
                 .collect(Collectors.toSet());
     }
+
+    private static final class PlanKey {
+        private final String type;
+        private final boolean returnDefaultAttributes;
+        private final boolean allowPartialAttributeValues;
+        private final String[] attributesToGet;
+        private final int hash;
+
+        private PlanKey(String type, OperationOptions options) {
+            this.type = type;
+            this.returnDefaultAttributes = Boolean.TRUE.equals(options.getReturnDefaultAttributes());
+            this.allowPartialAttributeValues = Boolean.TRUE.equals(options.getAllowPartialAttributeValues());
+            this.attributesToGet = options.getAttributesToGet();
+            this.hash = Objects.hash(type, returnDefaultAttributes, allowPartialAttributeValues)
+                    + 31 * Arrays.hashCode(attributesToGet);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PlanKey)) return false;
+            PlanKey that = (PlanKey) o;
+            return type.equals(that.type) && returnDefaultAttributes == that.returnDefaultAttributes
+                    && allowPartialAttributeValues == that.allowPartialAttributeValues
+                    && Arrays.equals(attributesToGet, that.attributesToGet);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
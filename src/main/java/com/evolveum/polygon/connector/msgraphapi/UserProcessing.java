@@ -2,18 +2,23 @@ package com.evolveum.polygon.connector.msgraphapi;
 
 import com.evolveum.polygon.common.GuardedStringAccessor;
 import com.evolveum.polygon.connector.msgraphapi.util.ResourceQuery;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.methods.*;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ByteArrayEntity;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.*;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.net.URI;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -53,6 +58,7 @@ public class UserProcessing extends ObjectProcessing {
     private static final String ATTR_USERPRINCIPALNAME = "userPrincipalName";
     private static final String ATTR_MEMBER_OF_GROUP = "memberOfGroup";
     private static final String ATTR_OWNER_OF_GROUP = "ownerOfGroup";
+    private static final String ATTR_TRANSITIVE_MEMBER_OF_GROUP = "transitiveMemberOfGroup";
     private static final String ATTR_MEMBER_OF_ROLE = "memberOfRole";
 
 
@@ -62,6 +68,9 @@ public class UserProcessing extends ObjectProcessing {
 
     //Sign in, auxiliary computed attribute representing the last sign in
     private static final String ATTR_SIGN_IN = "lastSignIn";
+    private static final String ATTR_SIGN_IN_ACTIVITY = "signInActivity";
+    private static final String ATTR_LAST_SIGN_IN_DATE_TIME = "lastSignInDateTime";
+    private static final String SIGN_INS = "/auditLogs/signIns";
 
     //ASSIGNEDLICENSES
     private static final String ATTR_ASSIGNEDLICENSES = "assignedLicenses";
@@ -122,6 +131,12 @@ public class UserProcessing extends ObjectProcessing {
     private static final String ATTR_PROVISIONINGSTATUS = "provisioningStatus";
 
     private static final String ATTR_PROXYADDRESSES = "proxyAddresses";
+    // Graph supports $orderby for these attributes only
+    private static final Set<String> SORTABLE_ATTRS = new HashSet<>(Arrays.asList(
+            ATTR_USERPRINCIPALNAME, ATTR_DISPLAYNAME));
+    // Graph supports endsWith for these attributes only
+    private static final Set<String> ENDS_WITH_ATTRS = new HashSet<>(Arrays.asList(
+            Name.NAME, ATTR_USERPRINCIPALNAME, ATTR_MAIL, "otherMails", ATTR_PROXYADDRESSES));
     private static final String ATTR_RESPONSIBILITIES = "responsibilities"; // Need SPO license
     private static final String ATTR_SCHOOLS = "schools"; // Need SPO license
     private static final String ATTR_SKILLS = "skills"; // Need SPO license
@@ -157,7 +172,6 @@ public class UserProcessing extends ObjectProcessing {
     private static final String ATTR_ICF_PASSWORD = "__PASSWORD__";
     private static final String ATTR_ICF_ENABLED = "__ENABLE__";
 
-    private static final String O_REMOVED = "@removed";
 
     // extend
     private static final String ATTR_ONPREMISESEXTENSIONATTRIBUTES = "onPremisesExtensionAttributes";
@@ -166,6 +180,9 @@ public class UserProcessing extends ObjectProcessing {
     // technical constants
     private static final String TYPE = "@odata.type";
     private static final String TYPE_GROUP = "#microsoft.graph.group";
+    // type of users in directoryObjects/getByIds
+    private static final String GRAPH_TYPE_USER = "user";
+    private static final String ATTR_MEMBER_OF = "memberOf";
 
     // SPO(SharePoint Online) attributes
     protected static final Set<String> SPO_ATTRS = Stream.of(
@@ -196,6 +213,67 @@ public class UserProcessing extends ObjectProcessing {
             ATTR_SKILLS
     ).collect(Collectors.toSet());
 
+    // attributes which can be selected when listing users, SPO attributes are available on single user GET only
+    private static final String[] LIST_ATTRS = {
+            ATTR_ACCOUNTENABLED, ATTR_DISPLAYNAME,
+            ATTR_ONPREMISESIMMUTABLEID, ATTR_MAILNICKNAME, ATTR_USERPRINCIPALNAME,
+            ATTR_BUSINESSPHONES, ATTR_CITY, ATTR_COMPANYNAME, ATTR_COUNTRY, ATTR_DEPARTMENT,
+            ATTR_GIVENNAME, ATTR_IMADDRESSES, ATTR_ID,
+            ATTR_JOBTITLE, ATTR_MAIL, ATTR_MOBILEPHONE, ATTR_OFFICELOCATION,
+            ATTR_ONPREMISESLASTSYNCDATETIME, ATTR_ONPREMISESSECURITYIDENTIFIER,
+            ATTR_ONPREMISESSYNCENABLED, ATTR_PASSWORDPOLICIES,
+            ATTR_POSTALCODE, ATTR_PREFERREDLANGUAGE,
+            ATTR_PROXYADDRESSES,
+            ATTR_STATE, ATTR_STREETADDRESS, ATTR_SURNAME,
+            ATTR_USAGELOCATION, ATTR_USERTYPE, ATTR_ASSIGNEDLICENSES,
+            ATTR_EXTERNALUSERSTATE, ATTR_EXTERNALUSERSTATECHANGEDATETIME, ATTR_MANAGER,
+            ATTR_ONPREMISESEXTENSIONATTRIBUTES
+    };
+
+    private static final String[] SINGLE_ATTRS = {
+            ATTR_ACCOUNTENABLED, ATTR_DISPLAYNAME,
+            ATTR_ONPREMISESIMMUTABLEID, ATTR_MAILNICKNAME, ATTR_USERPRINCIPALNAME, ATTR_ABOUTME,
+            ATTR_BIRTHDAY, ATTR_BUSINESSPHONES, ATTR_CITY, ATTR_COMPANYNAME, ATTR_COUNTRY, ATTR_DEPARTMENT,
+            ATTR_GIVENNAME, ATTR_HIREDATE, ATTR_IMADDRESSES, ATTR_ID, ATTR_INTERESTS,
+            ATTR_JOBTITLE, ATTR_MAIL, ATTR_MOBILEPHONE, ATTR_MYSITE, ATTR_OFFICELOCATION,
+            ATTR_ONPREMISESLASTSYNCDATETIME, ATTR_ONPREMISESSECURITYIDENTIFIER,
+            ATTR_ONPREMISESSYNCENABLED, ATTR_PASSWORDPOLICIES, ATTR_PASTPROJECTS,
+            ATTR_POSTALCODE, ATTR_PREFERREDLANGUAGE, ATTR_PREFERREDNAME,
+            ATTR_PROXYADDRESSES, ATTR_RESPONSIBILITIES, ATTR_SCHOOLS,
+            ATTR_SKILLS, ATTR_STATE, ATTR_STREETADDRESS, ATTR_SURNAME,
+            ATTR_USAGELOCATION, ATTR_USERTYPE, ATTR_ASSIGNEDLICENSES,
+            ATTR_EXTERNALUSERSTATE, ATTR_EXTERNALUSERSTATECHANGEDATETIME, ATTR_MANAGER,
+            ATTR_EMPLOYEE_HIRE_DATE, ATTR_EMPLOYEE_LEAVE_DATE_TIME, ATTR_EMPLOYEE_TYPE,
+            ATTR_FAX_NUMBER, ATTR_EMPLOYEE_ID, ATTR_ONPREMISESEXTENSIONATTRIBUTES
+    };
+
+    private static final JSONObjectMapper USER_MAPPER = buildUserMapper();
+
+    /**
+     * Reverse membership index used while listing all users, <code>null</code> if groups are saturated per user.
+     */
+    private MembershipIndex membershipIndex;
+
+    /**
+     * Transitive group membership of groups fetched during the operation, keyed by group id.
+     */
+    private final Map<String, List<String>> groupAncestors = new ConcurrentHashMap<>();
+
+    /**
+     * Last sign-in time by user id, prefetched from the sign-in log when listing users without signInActivity.
+     */
+    private Map<String, String> lastSignIns;
+
+    /**
+     * Whether the last sign-in of each user of a filtered search is read from the sign-in log.
+     */
+    private boolean lookUpLastSignIn;
+
+    /**
+     * Whether the manager of the handled users was expanded by the query, otherwise it is fetched for each user.
+     */
+    private boolean managerExpanded;
+
     public UserProcessing(GraphEndpoint graphEndpoint, SchemaTranslator schemaTranslator) {
         super(graphEndpoint, ICFPostMapper.builder()
                 .remap(ATTR_ICF_PASSWORD, "passwordProfile.password")
@@ -221,6 +299,16 @@ public class UserProcessing extends ObjectProcessing {
         return ObjectClass.ACCOUNT_NAME;
     }
 
+    @Override
+    protected boolean isSupportedFilter(Filter filter) {
+        return FilterPlan.isTranslatable(filter, ENDS_WITH_ATTRS);
+    }
+
+    @Override
+    protected boolean isCountSupported() {
+        return true;
+    }
+
     @Override
     protected ObjectClassInfo objectClassInfo() {
         ObjectClassInfoBuilder userObjClassBuilder = new ObjectClassInfoBuilder();
@@ -305,6 +393,13 @@ public class UserProcessing extends ObjectProcessing {
                 .setReturnedByDefault(false)
                 .build());
 
+        //read-only, direct and nested group membership
+        userObjClassBuilder.addAttributeInfo(new AttributeInfoBuilder(ATTR_TRANSITIVE_MEMBER_OF_GROUP)
+                .setRequired(false).setType(String.class).setMultiValued(true)
+                .setCreateable(false).setUpdateable(false).setReadable(true)
+                .setReturnedByDefault(false)
+                .build());
+
         //read-only, not nullable
         userObjClassBuilder.addAttributeInfo(new AttributeInfoBuilder(ATTR_MEMBER_OF_ROLE)
                 .setRequired(false).setType(String.class).setMultiValued(true)
@@ -624,103 +719,25 @@ public class UserProcessing extends ObjectProcessing {
         return userObjClassBuilder.build();
     }
 
-    public boolean isDeleteDelta(JSONObject o) {
-
-        if (o.has(O_REMOVED)) {
-
-            LOG.ok("Delta for processed object is {0}", SyncDeltaType.DELETE);
-            return true;
-        }
-
-        LOG.ok("Delta for processed object is {0}", SyncDeltaType.CREATE_OR_UPDATE);
-        return false;
-    }
-
     private JSONArray buildLicensesJSON(Collection<Object> licenses) {
         LOG.ok("Building licence JSON");
         if (licenses == null)
             return new JSONArray();
 
-        Map<String, List<String>> disabledPlansMap = new HashMap<>();
-
-        String[] disabledPlansList = parseDisabledPlans(getConfiguration().getDisabledPlans());
-        LOG.ok("About to construct disabled plans list");
-        for (String licensePlans : disabledPlansList) {
-
-            String a[] = licensePlans.split(":", 2);
-            if (a.length != 2)
-                continue;
-            String skuId = a[0];
-            String disabledPlans[] = a[1].split(",");
-            if (disabledPlans.length >= 1) {
-                if (disabledPlansMap.isEmpty()) {
-
-                    disabledPlansMap.put(skuId, Arrays.asList(disabledPlans));
-                } else {
-
-                    if (disabledPlansMap.containsKey(skuId)) {
-
-                        LOG.ok("Found skuID {0} among disabled plans map, fetching and augmenting", skuId);
-                        ArrayList<String> plans = new ArrayList(disabledPlansMap.get(skuId));
-
-                        for (String plan : disabledPlans) {
-
-                            if (!plans.contains(plan)) {
-
-                                LOG.ok("Augmenting skuID: {0}, by plan: {1}", skuId, plan);
-                                plans.add(plan);
-                            }
-                        }
-
-                        disabledPlansMap.put(skuId, plans);
-                    }
-                }
-            }
-        }
-
+        final LicenseCatalog catalog = getGraphEndpoint().getLicenseCatalog();
         JSONArray json = new JSONArray();
         licenses.forEach(it -> {
             JSONObject jo = new JSONObject();
             String skuId = (String) it;
             jo.put(ATTR_SKUID, skuId);
-            if (disabledPlansMap.containsKey(skuId))
-                jo.put(ATTR_DISABLEDPLANS, new JSONArray(disabledPlansMap.get(skuId)));
+            List<String> disabledPlans = catalog.getDisabledPlans(skuId);
+            if (disabledPlans != null)
+                jo.put(ATTR_DISABLEDPLANS, new JSONArray(disabledPlans));
             json.put(jo);
         });
         return json;
     }
 
-    private String[] parseDisabledPlans(String[] disabledPlans) {
-        LOG.ok("Parsing disabled plans");
-        List<String> list = new ArrayList<String>();
-
-        for (String licensePlan : disabledPlans) {
-            LOG.ok("Evaluating license plan: {0}", licensePlan);
-            if (licensePlan.contains("[") && licensePlan.contains("]")) {
-
-                String[] divPlan = StringUtils.substringsBetween(licensePlan, "[", "]");
-
-                String potentialPlanId = divPlan[divPlan.length - 1];
-
-                if (potentialPlanId.contains(":")) {
-                    LOG.ok("Adding following plan amongst disabled plans: {0}, formatted to {1}", licensePlan
-                            , potentialPlanId);
-
-                    list.add(potentialPlanId);
-                } else {
-
-                    LOG.warn("Potentially malformed plan ID detected on input: {0}", potentialPlanId);
-                }
-
-            } else {
-                LOG.ok("Adding license plan amongst parsed: {0}", licensePlan);
-                list.add(licensePlan);
-            }
-        }
-
-        return list.toArray(new String[0]);
-    }
-
     private void assignLicenses(Uid uid, Attribute licenseAttribute) {
         if (licenseAttribute == null) {
             return;
@@ -764,6 +781,8 @@ public class UserProcessing extends ObjectProcessing {
             jsonObject.put("removeLicenses", new JSONArray());
             endpoint.callRequestNoContent(request, null, jsonObject);
         }
+        // consumed units of the SKUs changed
+        endpoint.getLicenseCatalog().invalidateSkus();
     }
 
     private void assignManager(Uid uid, Attribute attribute) {
@@ -1012,22 +1031,8 @@ public class UserProcessing extends ObjectProcessing {
         LOG.info("executeQueryForUser()");
         final GraphEndpoint endpoint = getGraphEndpoint();
         final String selectorSingle = getSelectorSingle(options);
-
-        final String selectorList = selector(
-                ATTR_ACCOUNTENABLED, ATTR_DISPLAYNAME,
-                ATTR_ONPREMISESIMMUTABLEID, ATTR_MAILNICKNAME, ATTR_USERPRINCIPALNAME,
-                ATTR_BUSINESSPHONES, ATTR_CITY, ATTR_COMPANYNAME, ATTR_COUNTRY, ATTR_DEPARTMENT,
-                ATTR_GIVENNAME, ATTR_IMADDRESSES, ATTR_ID,
-                ATTR_JOBTITLE, ATTR_MAIL, ATTR_MOBILEPHONE, ATTR_OFFICELOCATION,
-                ATTR_ONPREMISESLASTSYNCDATETIME, ATTR_ONPREMISESSECURITYIDENTIFIER,
-                ATTR_ONPREMISESSYNCENABLED, ATTR_PASSWORDPOLICIES,
-                ATTR_POSTALCODE, ATTR_PREFERREDLANGUAGE,
-                ATTR_PROXYADDRESSES,
-                ATTR_STATE, ATTR_STREETADDRESS, ATTR_SURNAME,
-                ATTR_USAGELOCATION, ATTR_USERTYPE, ATTR_ASSIGNEDLICENSES,
-                ATTR_EXTERNALUSERSTATE, ATTR_EXTERNALUSERSTATECHANGEDATETIME, ATTR_MANAGER,
-                ATTR_ONPREMISESEXTENSIONATTRIBUTES
-        );
+        final String selectorList = projectedSelector(options, LIST_ATTRS, ATTR_ID, ATTR_USERPRINCIPALNAME)
+                + signInSelector(options);
 
         String query = null;
         Boolean fetchAll = false;
@@ -1059,53 +1064,7 @@ public class UserProcessing extends ObjectProcessing {
 
             if (fetchSpecific) {
 
-                LOG.info("Fetching account info for account: {0}", query);
-                StringBuilder sbPath = new StringBuilder();
-                sbPath.append(toGetURLByUserPrincipalName(query)).append("/");
-                String filter = "";
-
-                Set<String> attributesToGet = getAttributesToGet(options);
-                if (attributesToGet.contains(ATTR_MANAGER_ID)) {
-
-                    LOG.info("Fetching manager info for account: {0}", query);
-
-                    filter = "$" + EXPAND + "=" + ATTR_MANAGER;
-                }
-                LOG.ok("The constructed additional filter clause: {0}", filter.isEmpty() ? "Empty filter clause." : filter);
-
-                //not included : ATTR_PASSWORDPROFILE,
-                // ATTR_MAILBOXSETTINGS,ATTR_PROVISIONEDPLANS
-
-                //TODO
-                JSONObject user = endpoint.executeGetRequest(sbPath.toString(), selectorSingle + "&" +
-                        filter, options);
-
-                if (attributesToGet.contains(ATTR_SIGN_IN)) {
-                    LOG.info("Fetching sing-in info for account: {0}", query);
-                    sbPath = new StringBuilder()
-                            .append("/auditLogs/signIns");
-
-                    // /auditLogs/signIns doesn't support $select
-                    // https://learn.microsoft.com/en-us/graph/api/signin-list?view=graph-rest-1.0&tabs=http#optional-query-parameters
-                    StringBuilder signInSelector = new StringBuilder()
-                            .append("$top=1&$filter=").append("userId").append(" eq ").append("'" + query + "'");
-
-                    LOG.ok("Sign-in info query with path: {0} and filter {1}", sbPath, signInSelector);
-                    // Use "paging = false" with customQuery contains "$top=1" here since we need the last sign object only
-                    endpoint.executeListRequest(sbPath.toString(), signInSelector.toString(), options, false, (opt, signIn) -> {
-                        // First object in the json array is the last sign in
-                        if (!signIn.isNull("createdDateTime")) {
-                            String lastSignInTime = signIn.getString("createdDateTime");
-                            user.put(ATTR_SIGN_IN, lastSignInTime);
-                        }
-
-                        LOG.ok("The last sign in: {0}", signIn);
-                        return false;
-                    });
-                }
-
-                LOG.ok("The retrieved JSONObject for the account {0}: {1}", query, user);
-                handleJSONObject(options, user, handler);
+                fetchUser(query, false, handler, options);
 
             } else {
 
@@ -1115,14 +1074,141 @@ public class UserProcessing extends ObjectProcessing {
 
                 // final String filter = "$filter=" + translatedQuery;
                 LOG.ok("The constructed filter: {0}", query);
-                endpoint.executeListRequest(USERS, selectorList + '&' + query, options, true, createJSONObjectHandler(handler));
+                List<String> chunkQueries = new ArrayList<>();
+                for (String chunkQuery : translatedQuery.toChunkQueries()) {
+                    // chunks are sorted once merged, see listChunkedObjects
+                    if (!translatedQuery.isChunked()) {
+                        chunkQuery += orderByClause(options, SORTABLE_ATTRS, ATTR_USERPRINCIPALNAME, chunkQuery);
+                    }
+                    chunkQueries.add(selectorList + '&' + chunkQuery + expandRelationship(options, chunkQuery));
+                }
+
+                if (isCountOnly(options)) {
+                    if (translatedQuery.isChunked()) {
+                        // an object may match more chunks
+                        countListedObjects(countingHandler ->
+                                listChunkedObjects(USERS, chunkQueries, options, true, countingHandler));
+                    } else {
+                        countObjects(USERS, translatedQuery.toCountQuery());
+                    }
+                    return;
+                }
+
+                lookUpLastSignIns(options);
+                listChunkedObjects(USERS, chunkQueries, options, true, handler);
+                countRemainingResults(USERS, translatedQuery.toCountQuery(), options);
             }
 
         } else {
             LOG.info("Empty query, returning full list of objects for the {0} object class", ObjectClass.ACCOUNT_NAME);
+            if (isCountOnly(options)) {
+                countObjects(USERS, null);
+                return;
+            }
+
+            final boolean saturateMembership = shouldSaturate(options, ObjectClass.ACCOUNT_NAME, ATTR_MEMBER_OF_GROUP);
+            final boolean saturateOwnership = shouldSaturate(options, ObjectClass.ACCOUNT_NAME, ATTR_OWNER_OF_GROUP);
+            if (getConfiguration().isMembershipIndex() && (saturateMembership || saturateOwnership)) {
+                membershipIndex = endpoint.getMembershipIndex(saturateOwnership);
+            }
+            prefetchLastSignIns(options);
+
+            listObjects(USERS, selectorList + orderByClause(options, SORTABLE_ATTRS, ATTR_USERPRINCIPALNAME, null)
+                    + expandRelationship(options, null), options, true, handler);
+            countRemainingResults(USERS, null, options);
+        }
+    }
+
+    /**
+     * Last sign-in is selected through the signInActivity property if the tenant supports it.
+     */
+    private String signInSelector(OperationOptions options) {
+        if (options == null || !getConfiguration().isSignInActivity()
+                || !attributePlan(options, ObjectClass.ACCOUNT_NAME).contains(ATTR_SIGN_IN)) {
+            return "";
+        }
+        return "," + ATTR_SIGN_IN_ACTIVITY;
+    }
 
-            endpoint.executeListRequest(USERS, selectorList, options, true, createJSONObjectHandler(handler));
+    /**
+     * Without signInActivity, read the sign-in log of the configured number of days once and keep the last sign-in
+     * of every user, instead of querying the log for each listed user. Only worth it when all users are listed.
+     */
+    void prefetchLastSignIns(OperationOptions options) {
+        if (!isSignInScanned(options)) {
+            return;
         }
+
+        final String since = Instant.now().minus(getConfiguration().getSignInScanDays(), ChronoUnit.DAYS)
+                .truncatedTo(ChronoUnit.SECONDS).toString();
+        final Map<String, String> signIns = new HashMap<>();
+        getGraphEndpoint().executeListRequest(SIGN_INS, "$filter=createdDateTime ge " + since, null, true,
+                (opt, signIn) -> {
+                    if (!signIn.isNull("userId") && !signIn.isNull("createdDateTime")) {
+                        // ISO-8601 UTC timestamps compare as strings
+                        signIns.merge(signIn.getString("userId"), signIn.getString("createdDateTime"),
+                                (a, b) -> a.compareTo(b) >= 0 ? a : b);
+                    }
+                    return true;
+                });
+        LOG.info("Prefetched last sign-in of {0} users since {1}", signIns.size(), since);
+        lastSignIns = signIns;
+    }
+
+    /**
+     * A filtered search returns a few users, the last sign-in of each of them is read from the log separately
+     * rather than scanning the whole log.
+     */
+    void lookUpLastSignIns(OperationOptions options) {
+        lookUpLastSignIn = isSignInScanned(options);
+    }
+
+    private boolean isSignInScanned(OperationOptions options) {
+        final Integer days = getConfiguration().getSignInScanDays();
+        return !getConfiguration().isSignInActivity() && days != null && days > 0
+                && attributePlan(options, ObjectClass.ACCOUNT_NAME).contains(ATTR_SIGN_IN);
+    }
+
+    private JSONObject saturateLastSignIn(JSONObject user) {
+        final JSONObject activity = user.optJSONObject(ATTR_SIGN_IN_ACTIVITY);
+        final String lastSignIn;
+        if (activity != null) {
+            lastSignIn = activity.optString(ATTR_LAST_SIGN_IN_DATE_TIME, null);
+        } else if (lastSignIns != null) {
+            lastSignIn = lastSignIns.get(user.getString(ATTR_ID));
+        } else if (lookUpLastSignIn) {
+            fetchLastSignIn(user, user.getString(ATTR_ID), null);
+            return user;
+        } else {
+            return user;
+        }
+        if (lastSignIn != null) {
+            user.put(ATTR_SIGN_IN, lastSignIn);
+        }
+        return user;
+    }
+
+    /**
+     * Create the expand clause of a user list query. Graph expands a single relationship of directory objects in
+     * a request, the manager is expanded if the group membership is not. A manager which is not expanded is
+     * saturated for each user.
+     */
+    private String expandRelationship(OperationOptions options, String query) {
+        final String memberOf = expandMemberOf(options, query);
+        if (!memberOf.isEmpty() || !attributePlan(options, ObjectClass.ACCOUNT_NAME).contains(ATTR_MANAGER_ID)) {
+            managerExpanded = false;
+            return memberOf;
+        }
+        final String manager = singleExpandClause(ATTR_MANAGER, query);
+        managerExpanded = !manager.isEmpty();
+        return manager;
+    }
+
+    private String expandMemberOf(OperationOptions options, String query) {
+        if (membershipIndex != null || !shouldSaturate(options, ObjectClass.ACCOUNT_NAME, ATTR_MEMBER_OF_GROUP)) {
+            return "";
+        }
+        return expandClause(ATTR_MEMBER_OF, query);
     }
 
     protected Set<String> getAttributesToGet(OperationOptions options) {
@@ -1132,6 +1218,149 @@ public class UserProcessing extends ObjectProcessing {
         return new HashSet<>(Arrays.asList(options.getAttributesToGet()));
     }
 
+    /**
+     * Fetch a single user by its id or userPrincipalName.
+     *
+     * @param query          Id or userPrincipalName of the user
+     * @param missingIsEmpty Whether a user which does not exist is just not found instead of an error
+     * @param handler        Results handler
+     * @param options        Operation options
+     */
+    private void fetchUser(String query, boolean missingIsEmpty, ResultsHandler handler, OperationOptions options) {
+        final GraphEndpoint endpoint = getGraphEndpoint();
+        final String selectorSingle = getSelectorSingle(options);
+        LOG.info("Fetching account info for account: {0}", query);
+        StringBuilder sbPath = new StringBuilder();
+        sbPath.append(toGetURLByUserPrincipalName(query)).append("/");
+        String filter = "";
+
+        Set<String> attributesToGet = getAttributesToGet(options);
+        if (attributesToGet.contains(ATTR_MANAGER_ID)) {
+
+            LOG.info("Fetching manager info for account: {0}", query);
+
+            filter = "$" + EXPAND + "=" + ATTR_MANAGER;
+            managerExpanded = true;
+        }
+        LOG.ok("The constructed additional filter clause: {0}", filter.isEmpty() ? "Empty filter clause." : filter);
+
+        //not included : ATTR_PASSWORDPROFILE,
+        // ATTR_MAILBOXSETTINGS,ATTR_PROVISIONEDPLANS
+
+        //TODO
+        final JSONObject user;
+        try {
+            user = endpoint.executeGetRequest(sbPath.toString(), selectorSingle + "&" + filter, options);
+        } catch (UnknownUidException e) {
+            if (!missingIsEmpty) {
+                throw e;
+            }
+            LOG.ok("No account {0} found: {1}", query, e.getMessage());
+            return;
+        }
+        if (missingIsEmpty && (user == null || !user.has(ATTR_ID))) {
+            // error responses are not raised when account provisioning is delayed
+            LOG.ok("No account {0} found", query);
+            return;
+        }
+
+        if (attributesToGet.contains(ATTR_SIGN_IN) && !getConfiguration().isSignInActivity()) {
+            LOG.info("Fetching sing-in info for account: {0}", query);
+            fetchLastSignIn(user, user.optString(ATTR_ID, query), options);
+        }
+
+        LOG.ok("The retrieved JSONObject for the account {0}: {1}", query, user);
+        handleJSONObject(options, user, handler);
+    }
+
+    /**
+     * Read the last sign-in of a user from the sign-in log, the log is sorted from the most recent sign-in.
+     */
+    private void fetchLastSignIn(JSONObject user, String id, OperationOptions options) {
+        // /auditLogs/signIns doesn't support $select
+        // https://learn.microsoft.com/en-us/graph/api/signin-list?view=graph-rest-1.0&tabs=http#optional-query-parameters
+        StringBuilder signInSelector = new StringBuilder()
+                .append("$top=1&$filter=").append("userId").append(" eq ")
+                .append("'" + id + "'");
+
+        LOG.ok("Sign-in info query with path: {0} and filter {1}", SIGN_INS, signInSelector);
+        // Use "paging = false" with customQuery contains "$top=1" here since we need the last sign object only
+        getGraphEndpoint().executeListRequest(SIGN_INS, signInSelector.toString(), options, false, (opt, signIn) -> {
+            // First object in the json array is the last sign in
+            if (!signIn.isNull("createdDateTime")) {
+                String lastSignInTime = signIn.getString("createdDateTime");
+                user.put(ATTR_SIGN_IN, lastSignInTime);
+            }
+
+            LOG.ok("The last sign in: {0}", signIn);
+            return false;
+        });
+    }
+
+    /**
+     * Search users by equality of their name by a direct GET of the user instead of a filtered list, which is the
+     * usual correlation query. A user which does not exist is not an error of the search, nothing is found. Graph
+     * resolves the object id the same way, the user is passed only if its name is the searched one.
+     *
+     * @param userPrincipalName Name of the user, see {@link #toDirectlyFetchedName(Filter)}
+     * @param handler           Results handler
+     * @param options           Operation options
+     */
+    public void executeQueryForUserByName(String userPrincipalName, ResultsHandler handler,
+                                          OperationOptions options) {
+        LOG.info("executeQueryForUserByName(), userPrincipalName: {0}", userPrincipalName);
+        fetchUser(userPrincipalName, true, connectorObject -> {
+            if (!userPrincipalName.equalsIgnoreCase(connectorObject.getName().getNameValue())) {
+                LOG.ok("The user {0} fetched by {1} has another name", connectorObject.getName().getNameValue(),
+                        userPrincipalName);
+                return true;
+            }
+            return handler.handle(connectorObject);
+        }, options);
+    }
+
+    /**
+     * Search users by a list of their ids, see {@link #toUidValues(Filter)}.
+     *
+     * @param ids     Ids of the users
+     * @param handler Results handler
+     * @param options Operation options
+     */
+    public void executeQueryForUserByIds(List<String> ids, ResultsHandler handler, OperationOptions options) {
+        LOG.info("executeQueryForUserByIds(), {0} ids", ids.size());
+        final String selectorList = projectedSelector(options, LIST_ATTRS, ATTR_ID, ATTR_USERPRINCIPALNAME)
+                + signInSelector(options);
+        lookUpLastSignIns(options);
+        listObjectsByIds(GRAPH_TYPE_USER, ids, selectorList, options, handler);
+    }
+
+    /**
+     * @param filter Search filter
+     * @return Name of the user the filter selects by equality if the user can be fetched directly by it,
+     * otherwise <code>null</code>
+     */
+    static String toDirectlyFetchedName(Filter filter) {
+        if (!(filter instanceof EqualsFilter)) {
+            return null;
+        }
+
+        final Attribute attribute = ((EqualsFilter) filter).getAttribute();
+        if (!Name.NAME.equals(attribute.getName()) && !ATTR_USERPRINCIPALNAME.equals(attribute.getName())) {
+            return null;
+        }
+        final List<Object> values = attribute.getValue();
+        if (values == null || values.size() != 1 || !(values.get(0) instanceof String)) {
+            return null;
+        }
+
+        // the name becomes a segment of the request path, a value without '@' may be resolved as an object id
+        final String name = (String) values.get(0);
+        if (name.indexOf('@') < 0 || name.contains("/") || name.contains("\\") || name.contains("'")) {
+            return null;
+        }
+        return name;
+    }
+
     /**
      * When the userPrincipalName begins with a $ character, remove the slash (/) after /users and
      * enclose the userPrincipalName in parentheses and single quotes.
@@ -1161,14 +1390,31 @@ public class UserProcessing extends ObjectProcessing {
     @Override
     protected boolean handleJSONObject(OperationOptions options, JSONObject user, ResultsHandler handler) {
         LOG.ok("processingObjectFromGET (Object)");
+        if (attributePlan(options, ObjectClass.ACCOUNT_NAME).contains(ATTR_SIGN_IN)) {
+            user = saturateLastSignIn(user);
+        }
+
         if (shouldSaturate(options, ObjectClass.ACCOUNT_NAME, ATTR_MEMBER_OF_GROUP)) {
-            user = saturateGroupMembership(user);
+            final JSONArray expanded = getCompleteExpansion(user, ATTR_MEMBER_OF);
+            if (expanded != null) {
+                user.put(ATTR_MEMBER_OF_GROUP, new JSONArray(toGroupIds(expanded)));
+            } else {
+                user = saturateGroupMembership(user);
+            }
         }
 
         if (shouldSaturate(options, ObjectClass.ACCOUNT_NAME, ATTR_OWNER_OF_GROUP)) {
             user = saturateGroupOwnership(user);
         }
 
+        if (!managerExpanded && shouldSaturate(options, ObjectClass.ACCOUNT_NAME, ATTR_MANAGER_ID)) {
+            user = saturateManager(user);
+        }
+
+        if (shouldSaturate(options, ObjectClass.ACCOUNT_NAME, ATTR_TRANSITIVE_MEMBER_OF_GROUP)) {
+            user = saturateTransitiveGroupMembership(user);
+        }
+
         if (shouldSaturate(options, ObjectClass.ACCOUNT_NAME, ATTR_MEMBER_OF_ROLE)) {
             user = saturateRoleMembership(user);
         }
@@ -1181,7 +1427,11 @@ public class UserProcessing extends ObjectProcessing {
 
         incompleteIfNecessary(options, ObjectClass.ACCOUNT_NAME, ATTR_MEMBER_OF_GROUP, builder);
         incompleteIfNecessary(options, ObjectClass.ACCOUNT_NAME, ATTR_OWNER_OF_GROUP, builder);
+        incompleteIfNecessary(options, ObjectClass.ACCOUNT_NAME, ATTR_TRANSITIVE_MEMBER_OF_GROUP, builder);
         incompleteIfNecessary(options, ObjectClass.ACCOUNT_NAME, ATTR_MEMBER_OF_ROLE, builder);
+        if (!managerExpanded) {
+            incompleteIfNecessary(options, ObjectClass.ACCOUNT_NAME, ATTR_MANAGER_ID, builder);
+        }
 
         ConnectorObject connectorObject = builder.build();
         LOG.info("convertUserToConnectorObject, user: {0}, \n\tconnectorObject: {1}", user.get("id"), connectorObject);
@@ -1211,6 +1461,49 @@ public class UserProcessing extends ObjectProcessing {
         return  convertUserJSONObjectToConnectorObject(user);
     }
 
+    /**
+     * Fetch users with the attributes to get the same way as {@link #evaluateAndFetchAttributesToGet(Uid,
+     * OperationOptions)}, in JSON batches. A user whose request in the batch failed is fetched separately, users
+     * which no longer exist are left out.
+     *
+     * @param uids Uids of the users
+     * @param oo   Operation options
+     * @return Connector object builders of the users by their uids
+     */
+    public Map<String, ConnectorObjectBuilder> evaluateAndFetchAttributesToGet(List<String> uids,
+                                                                               OperationOptions oo) {
+        final Map<String, ConnectorObjectBuilder> builders = new HashMap<>();
+        final GraphEndpoint endpoint = getGraphEndpoint();
+        String query = getSelectorSingle(oo);
+        if (getAttributesToGet(oo).contains(ATTR_MANAGER_ID)) {
+            query += "&$" + EXPAND + "=" + ATTR_MANAGER;
+        }
+
+        for (int i = 0; i < uids.size(); i += GraphEndpoint.BATCH_MAX) {
+            final List<String> batch = uids.subList(i, Math.min(uids.size(), i + GraphEndpoint.BATCH_MAX));
+            final List<String> urls = new ArrayList<>(batch.size());
+            for (String uid : batch) {
+                urls.add(toGetURLByUserPrincipalName(uid) + "?" + query);
+            }
+
+            final List<JSONObject> responses = endpoint.executeBatchRequest(urls);
+            for (int j = 0; j < batch.size(); j++) {
+                final String uid = batch.get(j);
+                final JSONObject response = responses.get(j);
+                final int status = response != null ? response.optInt("status") : 0;
+                if (status == 200 && response.optJSONObject("body") != null) {
+                    builders.put(uid, convertUserJSONObjectToConnectorObject(response.getJSONObject("body")));
+                } else if (status == 404) {
+                    LOG.ok("The account {0} no longer exists", uid);
+                } else {
+                    LOG.ok("Batch request of the account {0} returned status {1}, fetching it separately", uid, status);
+                    builders.put(uid, evaluateAndFetchAttributesToGet(new Uid(uid), oo));
+                }
+            }
+        }
+        return builders;
+    }
+
 
     private JSONObject buildInvitation(String displayName, String mail, String userType) {
         final JSONObject invitation = new JSONObject()
@@ -1227,27 +1520,92 @@ public class UserProcessing extends ObjectProcessing {
 
     private JSONObject saturateGroupMembership(JSONObject user) {
         final String uid = user.getString(ATTR_ID);
-        final List<String> groups = getGraphEndpoint().executeListRequest(
-                        String.format("/users/%s/memberOf", uid), "$select=id", null, true)
-                .toList().stream()
-                .filter(o -> TYPE_GROUP.equals(((Map) o).get(TYPE)))
-                .map(o -> (String) ((Map) o).get(ATTR_ID))
-                .collect(Collectors.toList());
+        if (membershipIndex != null) {
+            user.put(ATTR_MEMBER_OF_GROUP, new JSONArray(membershipIndex.getMemberOf(uid)));
+            return user;
+        }
+        final List<String> groups = toGroupIds(getGraphEndpoint().executeListRequest(
+                String.format("/users/%s/memberOf", uid), "$select=id", null, true));
         user.put(ATTR_MEMBER_OF_GROUP, new JSONArray(groups));
         return user;
     }
 
+    /**
+     * Saturate the manager of a user listed without the manager expanded, a user without a manager has none.
+     */
+    private JSONObject saturateManager(JSONObject user) {
+        final String uid = user.getString(ATTR_ID);
+        try {
+            final JSONObject manager = getGraphEndpoint().executeGetRequest(
+                    String.format("/users/%s/%s", uid, ATTR_MANAGER), "$select=id", null);
+            if (manager != null && manager.has(ATTR_ID)) {
+                user.put(ATTR_MANAGER, new JSONObject().put(ATTR_ID, manager.getString(ATTR_ID)));
+            }
+        } catch (UnknownUidException e) {
+            LOG.ok("User {0} has no manager", uid);
+        }
+        return user;
+    }
+
     // Saturate group ownership function
     private JSONObject saturateGroupOwnership(JSONObject user) {
         final String uid = user.getString(ATTR_ID);
-        final List<String> groups = getGraphEndpoint().executeListRequest(
-                        String.format("/users/%s/ownedObjects", uid), "$select=id", null, true)
-                .toList().stream()
+        if (membershipIndex != null && membershipIndex.hasOwners()) {
+            user.put(ATTR_OWNER_OF_GROUP, new JSONArray(membershipIndex.getOwnerOf(uid)));
+            return user;
+        }
+        final List<String> groups = toGroupIds(getGraphEndpoint().executeListRequest(
+                String.format("/users/%s/ownedObjects", uid), "$select=id", null, true));
+        user.put(ATTR_OWNER_OF_GROUP, new JSONArray(groups));
+        return user;
+    }
+
+    /**
+     * Saturate direct and nested group membership. If the direct groups of the user are already known, the
+     * membership is assembled from the ancestors of those groups, which are fetched once per group and operation.
+     * Otherwise the transitive membership of the user is read in one paged request.
+     */
+    JSONObject saturateTransitiveGroupMembership(JSONObject user) {
+        final String uid = user.getString(ATTR_ID);
+        final JSONArray directGroups = user.optJSONArray(ATTR_MEMBER_OF_GROUP);
+        if (directGroups == null) {
+            final JSONArray groups = getGraphEndpoint().executeListRequest(
+                    String.format("/users/%s/transitiveMemberOf/microsoft.graph.group", uid), "$select=id", null, true);
+            user.put(ATTR_TRANSITIVE_MEMBER_OF_GROUP, getJSONArray(groups, ATTR_ID));
+            return user;
+        }
+
+        final Set<String> groups = new LinkedHashSet<>();
+        for (int i = 0; i < directGroups.length(); i++) {
+            final String groupId = directGroups.getString(i);
+            groups.add(groupId);
+            groups.addAll(getGroupAncestors(groupId));
+        }
+        user.put(ATTR_TRANSITIVE_MEMBER_OF_GROUP, new JSONArray(groups));
+        return user;
+    }
+
+    private List<String> getGroupAncestors(String groupId) {
+        List<String> ancestors = groupAncestors.get(groupId);
+        if (ancestors == null) {
+            LOG.ok("Fetching ancestors of group {0}", groupId);
+            final JSONArray groups = getGraphEndpoint().executeListRequest(
+                    String.format("/groups/%s/transitiveMemberOf/microsoft.graph.group", groupId), "$select=id", null, true);
+            ancestors = new ArrayList<>(groups.length());
+            for (int i = 0; i < groups.length(); i++) {
+                ancestors.add(groups.getJSONObject(i).getString(ATTR_ID));
+            }
+            // saturation threads may fetch the same group at once, either result is fine
+            groupAncestors.putIfAbsent(groupId, ancestors);
+        }
+        return ancestors;
+    }
+
+    private List<String> toGroupIds(JSONArray directoryObjects) {
+        return directoryObjects.toList().stream()
                 .filter(o -> TYPE_GROUP.equals(((Map) o).get(TYPE)))
                 .map(o -> (String) ((Map) o).get(ATTR_ID))
                 .collect(Collectors.toList());
-        user.put(ATTR_OWNER_OF_GROUP, new JSONArray(groups));
-        return user;
     }
 
     private JSONObject saturateRoleMembership(JSONObject user) {
@@ -1266,7 +1624,7 @@ public class UserProcessing extends ObjectProcessing {
         final GraphEndpoint endpoint = getGraphEndpoint();
         final String uid = user.getString(ATTR_ID);
 
-        if (getSchemaTranslator().containsToGet(ObjectClass.ACCOUNT_NAME, options, ATTR_USERPHOTO)) {
+        if (attributePlan(options, ObjectClass.ACCOUNT_NAME).contains(ATTR_USERPHOTO)) {
             LOG.info("[GET] - /photo/$value, for user with UID: {0}", uid);
             String photoPath = USERS + "/" + uid + "/" + ATTR_USERPHOTO + "/$value";
             final JSONObject userPhoto = endpoint.executeGetRequest(photoPath, null, options);
@@ -1283,69 +1641,34 @@ public class UserProcessing extends ObjectProcessing {
 
         getUIDIfExists(user, ATTR_ID, builder);
         getNAMEIfExists(user, ATTR_USERPRINCIPALNAME, builder);
-        getAndRenameIfExists(user, ATTR_ACCOUNTENABLED, Boolean.class, ATTR_ICF_ENABLED, builder);
-
-        getIfExists(user, ATTR_ACCOUNTENABLED, Boolean.class, builder);
-        getIfExists(user, ATTR_ID, String.class, builder);
-        getIfExists(user, ATTR_USERPRINCIPALNAME, String.class, builder);
-        getIfExists(user, ATTR_ACCOUNTENABLED, Boolean.class, builder);
-        getIfExists(user, ATTR_DISPLAYNAME, String.class, builder);
-        getIfExists(user, ATTR_ONPREMISESIMMUTABLEID, String.class, builder);
-        getIfExists(user, ATTR_MAILNICKNAME, String.class, builder);
-        getIfExists(user, ATTR_ABOUTME, String.class, builder);
-        getMultiIfExists(user, ATTR_MEMBER_OF_GROUP, builder);
-        getMultiIfExists(user, ATTR_OWNER_OF_GROUP, builder);
-        getMultiIfExists(user, ATTR_MEMBER_OF_ROLE, builder);
-        getIfExists(user, ATTR_BIRTHDAY, String.class, builder);
-        getIfExists(user, ATTR_CITY, String.class, builder);
-        getIfExists(user, ATTR_COMPANYNAME, String.class, builder);
-        getIfExists(user, ATTR_COUNTRY, String.class, builder);
-        getIfExists(user, ATTR_DEPARTMENT, String.class, builder);
-        getIfExists(user, ATTR_GIVENNAME, String.class, builder);
-        getIfExists(user, ATTR_HIREDATE, String.class, builder);
-        getMultiIfExists(user, ATTR_IMADDRESSES, builder);
-        getIfExists(user, ATTR_ID, String.class, builder);
-        getMultiIfExists(user, ATTR_BUSINESSPHONES, builder);
-        getMultiIfExists(user, ATTR_INTERESTS, builder);
-        getIfExists(user, ATTR_JOBTITLE, String.class, builder);
-        getIfExists(user, ATTR_MAIL, String.class, builder);
-        getIfExists(user, ATTR_MOBILEPHONE, String.class, builder);
-        getIfExists(user, ATTR_MYSITE, String.class, builder);
-        getIfExists(user, ATTR_OFFICELOCATION, String.class, builder);
-        getIfExists(user, ATTR_ONPREMISESLASTSYNCDATETIME, String.class, builder);
-        getIfExists(user, ATTR_ONPREMISESSECURITYIDENTIFIER, String.class, builder);
-        getIfExists(user, ATTR_ONPREMISESSYNCENABLED, Boolean.class, builder);
-        getIfExists(user, ATTR_PASSWORDPOLICIES, String.class, builder);
-        getMultiIfExists(user, ATTR_PASTPROJECTS, builder);
-        getIfExists(user, ATTR_POSTALCODE, String.class, builder);
-        getIfExists(user, ATTR_PREFERREDLANGUAGE, String.class, builder);
-        getIfExists(user, ATTR_PREFERREDNAME, String.class, builder);
-        getMultiIfExists(user, ATTR_RESPONSIBILITIES, builder);
-        getMultiIfExists(user, ATTR_SCHOOLS, builder);
-        getMultiIfExists(user, ATTR_SKILLS, builder);
-        getIfExists(user, ATTR_STATE, String.class, builder);
-        getIfExists(user, ATTR_STREETADDRESS, String.class, builder);
-        getIfExists(user, ATTR_SURNAME, String.class, builder);
-        getIfExists(user, ATTR_USAGELOCATION, String.class, builder);
-        getIfExists(user, ATTR_USERTYPE, String.class, builder);
-        getIfExists(user, ATTR_SIGN_IN, String.class, builder);
-        getIfExists(user, ATTR_EXTERNALUSERSTATE, String.class, builder);
-        getIfExists(user, ATTR_EXTERNALUSERSTATECHANGEDATETIME, String.class, builder);
-        getIfExists(user, ATTR_EMPLOYEE_HIRE_DATE, String.class, builder);
-        getIfExists(user, ATTR_EMPLOYEE_LEAVE_DATE_TIME, String.class, builder);
-        getIfExists(user, ATTR_EMPLOYEE_TYPE, String.class, builder);
-        getIfExists(user, ATTR_FAX_NUMBER, String.class, builder);
-        getIfExists(user, ATTR_EMPLOYEE_ID, String.class, builder);
-        getIfExists(user, ATTR_USERPHOTO, byte[].class, builder);
+        USER_MAPPER.map(user, builder);
+        return builder;
+    }
+
+    private static JSONObjectMapper buildUserMapper() {
+        JSONObjectMapper.JSONObjectMapperBuilder mapper = JSONObjectMapper.builder()
+                .rename(ATTR_ACCOUNTENABLED, Boolean.class, ATTR_ICF_ENABLED)
+                .single(Boolean.class, ATTR_ACCOUNTENABLED, ATTR_ONPREMISESSYNCENABLED)
+                .single(String.class, ATTR_ID, ATTR_USERPRINCIPALNAME, ATTR_DISPLAYNAME, ATTR_ONPREMISESIMMUTABLEID,
+                        ATTR_MAILNICKNAME, ATTR_ABOUTME, ATTR_BIRTHDAY, ATTR_CITY, ATTR_COMPANYNAME, ATTR_COUNTRY,
+                        ATTR_DEPARTMENT, ATTR_GIVENNAME, ATTR_HIREDATE, ATTR_JOBTITLE, ATTR_MAIL, ATTR_MOBILEPHONE,
+                        ATTR_MYSITE, ATTR_OFFICELOCATION, ATTR_ONPREMISESLASTSYNCDATETIME,
+                        ATTR_ONPREMISESSECURITYIDENTIFIER, ATTR_PASSWORDPOLICIES, ATTR_POSTALCODE,
+                        ATTR_PREFERREDLANGUAGE, ATTR_PREFERREDNAME, ATTR_STATE, ATTR_STREETADDRESS, ATTR_SURNAME,
+                        ATTR_USAGELOCATION, ATTR_USERTYPE, ATTR_SIGN_IN, ATTR_EXTERNALUSERSTATE,
+                        ATTR_EXTERNALUSERSTATECHANGEDATETIME, ATTR_EMPLOYEE_HIRE_DATE, ATTR_EMPLOYEE_LEAVE_DATE_TIME,
+                        ATTR_EMPLOYEE_TYPE, ATTR_FAX_NUMBER, ATTR_EMPLOYEE_ID)
+                .single(byte[].class, ATTR_USERPHOTO)
+                .multi(ATTR_MEMBER_OF_GROUP, ATTR_OWNER_OF_GROUP, ATTR_TRANSITIVE_MEMBER_OF_GROUP, ATTR_MEMBER_OF_ROLE, ATTR_IMADDRESSES,
+                        ATTR_BUSINESSPHONES, ATTR_INTERESTS, ATTR_PASTPROJECTS, ATTR_RESPONSIBILITIES, ATTR_SCHOOLS,
+                        ATTR_SKILLS, ATTR_PROXYADDRESSES)
+                .array(ATTR_ASSIGNEDLICENSES, ATTR_SKUID, String.class)
+                .objectItem(ATTR_MANAGER, ATTR_ID, String.class);
 
         for (int i = 1; i <= NUMBER_OF_EXTENSIONS; i++) {
-            getFromItemIfExists(user, ATTR_ONPREMISESEXTENSIONATTRIBUTES, EXTENSION_ATTRIBUTE + i, String.class, builder);
+            mapper.item(ATTR_ONPREMISESEXTENSIONATTRIBUTES, EXTENSION_ATTRIBUTE + i, String.class);
         }
-
-        getMultiIfExists(user, ATTR_PROXYADDRESSES, builder);
-        getFromArrayIfExists(user, ATTR_ASSIGNEDLICENSES, ATTR_SKUID, String.class, builder);
-        getJSONObjectItemIfExists(user, ATTR_MANAGER, ATTR_ID, String.class, builder);
-        return builder;
+        return mapper.build();
     }
 
     public ConnectorObjectBuilder enhanceConnectorObjectWithDeltaItems(JSONObject user,
@@ -1372,22 +1695,7 @@ public class UserProcessing extends ObjectProcessing {
 
         if (options != null) {
 
-            return selector(getSchemaTranslator().filter(ObjectClass.ACCOUNT_NAME, options,
-                    ATTR_ACCOUNTENABLED, ATTR_DISPLAYNAME,
-                    ATTR_ONPREMISESIMMUTABLEID, ATTR_MAILNICKNAME, ATTR_USERPRINCIPALNAME, ATTR_ABOUTME,
-                    ATTR_BIRTHDAY, ATTR_BUSINESSPHONES, ATTR_CITY, ATTR_COMPANYNAME, ATTR_COUNTRY, ATTR_DEPARTMENT,
-                    ATTR_GIVENNAME, ATTR_HIREDATE, ATTR_IMADDRESSES, ATTR_ID, ATTR_INTERESTS,
-                    ATTR_JOBTITLE, ATTR_MAIL, ATTR_MOBILEPHONE, ATTR_MYSITE, ATTR_OFFICELOCATION,
-                    ATTR_ONPREMISESLASTSYNCDATETIME, ATTR_ONPREMISESSECURITYIDENTIFIER,
-                    ATTR_ONPREMISESSYNCENABLED, ATTR_PASSWORDPOLICIES, ATTR_PASTPROJECTS,
-                    ATTR_POSTALCODE, ATTR_PREFERREDLANGUAGE, ATTR_PREFERREDNAME,
-                    ATTR_PROXYADDRESSES, ATTR_RESPONSIBILITIES, ATTR_SCHOOLS,
-                    ATTR_SKILLS, ATTR_STATE, ATTR_STREETADDRESS, ATTR_SURNAME,
-                    ATTR_USAGELOCATION, ATTR_USERTYPE, ATTR_ASSIGNEDLICENSES,
-                    ATTR_EXTERNALUSERSTATE, ATTR_EXTERNALUSERSTATECHANGEDATETIME, ATTR_MANAGER,
-                    ATTR_EMPLOYEE_HIRE_DATE, ATTR_EMPLOYEE_LEAVE_DATE_TIME, ATTR_EMPLOYEE_TYPE,
-                    ATTR_FAX_NUMBER, ATTR_EMPLOYEE_ID, ATTR_ONPREMISESEXTENSIONATTRIBUTES
-            ));
+            return projectedSelector(options, SINGLE_ATTRS, ATTR_ID, ATTR_USERPRINCIPALNAME) + signInSelector(options);
         } else {
 
             return selector(
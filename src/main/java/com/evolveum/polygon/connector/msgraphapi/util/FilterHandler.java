@@ -23,6 +23,9 @@ public class FilterHandler implements FilterVisitor<ResourceQuery, ResourceQuery
     private static final String IN_OP = "in";
     private static final String HA_OP = "has";
 
+    // Graph rejects 'in' operators with more values
+    public static final int IN_MAX_VALUES = 15;
+
     // Relational operators
 
     private static final String LESS_OP = "lt";
@@ -407,6 +410,11 @@ public class FilterHandler implements FilterVisitor<ResourceQuery, ResourceQuery
 
         LOG.ok("Processing through NOT filter expression {0}", notFilter);
 
+        if (notFilter.getFilter() instanceof EqualsFilter) {
+
+            return processNotEqualsFilter(p, (EqualsFilter) notFilter.getFilter());
+        }
+
         Boolean wasFirst = !afterFirtsOperation;
 
         negationInitial = wasFirst;
@@ -506,9 +514,43 @@ public class FilterHandler implements FilterVisitor<ResourceQuery, ResourceQuery
 
     }
 
+    private ResourceQuery processNotEqualsFilter(ResourceQuery p, EqualsFilter equalsFilter) {
+
+        if (afterFirtsOperation) {
+
+            checkFilterConditions();
+        }
+
+        // 'ne' is an advanced query as well as 'not'
+        p.setUseCount(true);
+
+        String snippet = processStringFilter(equalsFilter.getAttribute(), NOT_EQUAL_OP, p);
+
+        if (!afterFirtsOperation) {
+
+            p.setFilterExpression(snippet);
+
+            LOG.ok("Generated query snippet: {0}", p);
+            return p;
+        }
+
+        LOG.ok("Generated query snippet: {0}", snippet);
+
+        return new ResourceQuery(snippet, null);
+    }
+
     @Override
     public ResourceQuery visitOrFilter(ResourceQuery p, OrFilter orFilter) {
 
+        if (!afterFirtsOperation) {
+
+            List<EqualsFilter> equalsFilters = new ArrayList<>();
+            if (collectEqualsFilters(orFilter, equalsFilters)) {
+
+                return processInFilter(p, equalsFilters);
+            }
+        }
+
         Boolean isSearch = checkIfFilterOrChildHasSearch(orFilter);
 
        if(checkIfFilterOrChildHasOtherThanSearch(orFilter) && isSearch){
@@ -741,6 +783,91 @@ public class FilterHandler implements FilterVisitor<ResourceQuery, ResourceQuery
         return query.toString();
     }
 
+    /**
+     * Collect the equality filters of an OR filter, which is made of equality filters on one attribute only.
+     *
+     * @return <code>false</code> if the filter contains anything else
+     */
+    private boolean collectEqualsFilters(Filter filter, List<EqualsFilter> equalsFilters) {
+
+        if (filter instanceof OrFilter) {
+
+            for (Filter child : ((OrFilter) filter).getFilters()) {
+
+                if (!collectEqualsFilters(child, equalsFilters)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (!(filter instanceof EqualsFilter)) {
+            return false;
+        }
+
+        Attribute attr = ((EqualsFilter) filter).getAttribute();
+        List<Object> value = attr.getValue();
+        if (value == null || value.size() != 1 || value.get(0) == null) {
+            return false;
+        }
+
+        if (!equalsFilters.isEmpty() && !equalsFilters.get(0).getName().equals(attr.getName())) {
+            return false;
+        }
+
+        equalsFilters.add((EqualsFilter) filter);
+        return true;
+    }
+
+    /**
+     * Translate equality filters on one attribute to the 'in' operator. Values over the limit of Graph are split
+     * into chunks, which are executed as separate queries.
+     */
+    private ResourceQuery processInFilter(ResourceQuery p, List<EqualsFilter> equalsFilters) {
+
+        afterFirtsOperation = true;
+
+        String name = equalsFilters.get(0).getName();
+        if (Uid.NAME.equals(name)) {
+
+            name = p.getObjectClassUidName();
+        }
+
+        if (Name.NAME.equals(name)) {
+
+            name = p.getObjectClassNameName();
+        }
+
+        Set<String> values = new LinkedHashSet<>();
+        for (EqualsFilter equalsFilter : equalsFilters) {
+
+            values.add(wrapValue(AttributeUtil.getSingleValue(equalsFilter.getAttribute()).toString()));
+        }
+
+        List<String> chunks = new ArrayList<>();
+        List<String> chunk = new ArrayList<>(IN_MAX_VALUES);
+        for (String value : values) {
+
+            chunk.add(value);
+            if (chunk.size() == IN_MAX_VALUES) {
+
+                chunks.add(name + _PADDING + IN_OP + _PADDING + wrapValue(String.join(_COL, chunk), _L_PAR, _R_PAR));
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+
+            chunks.add(name + _PADDING + IN_OP + _PADDING + wrapValue(String.join(_COL, chunk), _L_PAR, _R_PAR));
+        }
+
+        p.setFilterExpression(chunks.get(0));
+        p.setFilterChunks(chunks);
+
+        LOG.ok("Generated query snippet for {0} values of OR OP in {1} chunks: {2}", values.size(), chunks.size(), p);
+        return p;
+    }
+
     private String processStringFunction(Attribute attr, String operator, ResourceQuery resourceQuery) {
 
         StringBuilder query = new StringBuilder();
@@ -0,0 +1,273 @@
+package com.evolveum.polygon.connector.msgraphapi.util;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.AndFilter;
+import org.identityconnectors.framework.common.objects.filter.AttributeFilter;
+import org.identityconnectors.framework.common.objects.filter.CompositeFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.common.objects.filter.FilterVisitor;
+import org.identityconnectors.framework.common.objects.filter.NotFilter;
+import org.identityconnectors.framework.common.objects.filter.OrFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites search filters to simpler equivalent ones before they are translated to a query.
+ * <p>
+ * Nested AND and OR filters are flattened, duplicate operands removed and negations pushed down to the leaves by
+ * De Morgan's laws, so that a negated equality can be sent as <code>ne</code>. Operands which are always true or
+ * always false are folded: <code>x and not x</code>, conflicting equalities on the identifiers and
+ * <code>x or not x</code>. Normalized filters are cached, as the same filters are searched repeatedly.
+ */
+public class FilterNormalizer {
+
+    private static final Log LOG = Log.getLog(FilterNormalizer.class);
+
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * Filter no object matches.
+     */
+    public static final Filter MATCH_NONE = new ConstantFilter(false);
+
+    // internal only, the normalized filter matching all objects is null
+    private static final Filter MATCH_ALL = new ConstantFilter(true);
+
+    private final Map<String, Filter> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, Filter>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Filter> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /**
+     * @param filter Search filter, may be <code>null</code>
+     * @return Equivalent filter, <code>null</code> if all objects match or {@link #MATCH_NONE} if none does
+     */
+    public Filter normalize(Filter filter) {
+        if (filter == null) {
+            return null;
+        }
+
+        final String key = key(filter);
+        Filter normalized = cache.get(key);
+        if (normalized == null) {
+            normalized = simplify(filter);
+            cache.put(key, normalized);
+            LOG.ok("Normalized filter {0} to {1}", filter, normalized);
+        }
+        return normalized == MATCH_ALL ? null : normalized;
+    }
+
+    private Filter simplify(Filter filter) {
+        if (filter instanceof AndFilter) {
+            return simplifyAnd(((AndFilter) filter).getFilters());
+        }
+        if (filter instanceof OrFilter) {
+            return simplifyOr(((OrFilter) filter).getFilters());
+        }
+        if (filter instanceof NotFilter) {
+            return simplifyNot(((NotFilter) filter).getFilter());
+        }
+        return filter;
+    }
+
+    private Filter simplifyAnd(Collection<Filter> filters) {
+        final Map<String, Filter> operands = new LinkedHashMap<>();
+        for (Filter filter : filters) {
+            final Filter operand = simplify(filter);
+            if (operand == MATCH_NONE) {
+                return MATCH_NONE;
+            }
+            if (operand instanceof AndFilter) {
+                for (Filter nested : ((AndFilter) operand).getFilters()) {
+                    operands.putIfAbsent(key(nested), nested);
+                }
+            } else if (operand != MATCH_ALL) {
+                operands.putIfAbsent(key(operand), operand);
+            }
+        }
+
+        if (isComplemented(operands) || hasConflictingIdentifiers(operands.values())) {
+            return MATCH_NONE;
+        }
+        return combine(operands.values(), MATCH_ALL, true);
+    }
+
+    private Filter simplifyOr(Collection<Filter> filters) {
+        final Map<String, Filter> operands = new LinkedHashMap<>();
+        for (Filter filter : filters) {
+            final Filter operand = simplify(filter);
+            if (operand == MATCH_ALL) {
+                return MATCH_ALL;
+            }
+            if (operand instanceof OrFilter) {
+                for (Filter nested : ((OrFilter) operand).getFilters()) {
+                    operands.putIfAbsent(key(nested), nested);
+                }
+            } else if (operand != MATCH_NONE) {
+                operands.putIfAbsent(key(operand), operand);
+            }
+        }
+
+        if (isComplemented(operands)) {
+            return MATCH_ALL;
+        }
+        return combine(operands.values(), MATCH_NONE, false);
+    }
+
+    private Filter simplifyNot(Filter negated) {
+        final Filter operand = simplify(negated);
+        if (operand == MATCH_ALL) {
+            return MATCH_NONE;
+        }
+        if (operand == MATCH_NONE) {
+            return MATCH_ALL;
+        }
+        if (operand instanceof NotFilter) {
+            return ((NotFilter) operand).getFilter();
+        }
+        if (operand instanceof AndFilter) {
+            return simplifyOr(negateAll(((AndFilter) operand).getFilters()));
+        }
+        if (operand instanceof OrFilter) {
+            return simplifyAnd(negateAll(((OrFilter) operand).getFilters()));
+        }
+        return FilterBuilder.not(operand);
+    }
+
+    private static List<Filter> negateAll(Collection<Filter> filters) {
+        final List<Filter> negated = new ArrayList<>(filters.size());
+        for (Filter filter : filters) {
+            negated.add(FilterBuilder.not(filter));
+        }
+        return negated;
+    }
+
+    /**
+     * @return <code>true</code> if an operand is present together with its negation
+     */
+    private static boolean isComplemented(Map<String, Filter> operands) {
+        for (Filter operand : operands.values()) {
+            if (operand instanceof NotFilter && operands.containsKey(key(((NotFilter) operand).getFilter()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An object has a single uid and name, conjunction of their equality to different values matches nothing.
+     * Graph compares them ignoring case.
+     */
+    private static boolean hasConflictingIdentifiers(Collection<Filter> operands) {
+        final Map<String, String> values = new HashMap<>();
+        for (Filter operand : operands) {
+            if (!(operand instanceof EqualsFilter)) {
+                continue;
+            }
+            final Attribute attribute = ((EqualsFilter) operand).getAttribute();
+            if (!Uid.NAME.equals(attribute.getName()) && !Name.NAME.equals(attribute.getName())) {
+                continue;
+            }
+            final String value = String.valueOf(attribute.getValue());
+            final String previous = values.put(attribute.getName(), value);
+            if (previous != null && !previous.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Filter combine(Collection<Filter> operands, Filter empty, boolean and) {
+        if (operands.isEmpty()) {
+            return empty;
+        }
+        if (operands.size() == 1) {
+            return operands.iterator().next();
+        }
+        final List<Filter> filters = new ArrayList<>(operands);
+        return and ? FilterBuilder.and(filters) : FilterBuilder.or(filters);
+    }
+
+    /**
+     * Structural key of a filter, equal for equal filters.
+     */
+    private static String key(Filter filter) {
+        final StringBuilder sb = new StringBuilder();
+        appendKey(filter, sb);
+        return sb.toString();
+    }
+
+    private static void appendKey(Filter filter, StringBuilder sb) {
+        sb.append(filter.getClass().getSimpleName()).append('(');
+        if (filter instanceof CompositeFilter) {
+            for (Filter operand : ((CompositeFilter) filter).getFilters()) {
+                appendKey(operand, sb);
+                sb.append(',');
+            }
+        } else if (filter instanceof NotFilter) {
+            appendKey(((NotFilter) filter).getFilter(), sb);
+        } else if (filter instanceof AttributeFilter) {
+            final Attribute attribute = ((AttributeFilter) filter).getAttribute();
+            appendToken(attribute.getName(), sb);
+            sb.append('=');
+            final List<Object> values = attribute.getValue();
+            if (values != null) {
+                for (Object value : values) {
+                    // values are typed and length-prefixed, so that no value can pass for a delimiter
+                    appendToken(value == null ? null : value.getClass().getSimpleName(), sb);
+                    appendToken(value == null ? null : value.toString(), sb);
+                }
+            }
+        } else {
+            sb.append(System.identityHashCode(filter));
+        }
+        sb.append(')');
+    }
+
+    private static void appendToken(String token, StringBuilder sb) {
+        if (token == null) {
+            sb.append('-');
+            return;
+        }
+        sb.append(token.length()).append(':').append(token);
+    }
+
+    private static final class ConstantFilter implements Filter {
+
+        private final boolean value;
+
+        private ConstantFilter(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean accept(ConnectorObject obj) {
+            return value;
+        }
+
+        @Override
+        public <R, P> R accept(FilterVisitor<R, P> v, P p) {
+            return v.visitExtendedFilter(p, this);
+        }
+
+        @Override
+        public String toString() {
+            return value ? "MATCH_ALL" : "MATCH_NONE";
+        }
+    }
+}
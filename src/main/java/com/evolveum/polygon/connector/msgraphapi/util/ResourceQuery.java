@@ -3,6 +3,10 @@ package com.evolveum.polygon.connector.msgraphapi.util;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class ResourceQuery {
 
     private static final Log LOG = Log.getLog(ResourceQuery.class);
@@ -17,6 +21,7 @@ public class ResourceQuery {
     private String searchExpression;
     private String filterExpression;
     private Boolean useCount = false;
+    private List<String> filterChunks;
 
     private static Boolean compositeOrNotUsedInSearch = false;
 
@@ -98,6 +103,48 @@ public class ResourceQuery {
         this.useCount = useCount;
     }
 
+    /**
+     * @return Query for the $count segment of a resource path, which needs no count request
+     */
+    public String toCountQuery() {
+        final String query = toString();
+        if (query != null && query.endsWith(_AMP + $_COUNT)) {
+            return query.substring(0, query.length() - (_AMP + $_COUNT).length());
+        }
+        return query;
+    }
+
+    /**
+     * @return Filter expressions which together select the same objects as the whole filter, empty if the filter
+     * is not split
+     */
+    public List<String> getFilterChunks() {
+        return filterChunks != null ? filterChunks : Collections.<String>emptyList();
+    }
+
+    public void setFilterChunks(List<String> filterChunks) {
+        this.filterChunks = filterChunks;
+    }
+
+    public boolean isChunked() {
+        return filterChunks != null && filterChunks.size() > 1;
+    }
+
+    /**
+     * @return Query of every filter chunk, or just the query itself if the filter is not split
+     */
+    public List<String> toChunkQueries() {
+        if (!isChunked()) {
+            return Collections.singletonList(toString());
+        }
+
+        List<String> queries = new ArrayList<>(filterChunks.size());
+        for (String chunk : filterChunks) {
+            queries.add($_FILTER + chunk + appendCount());
+        }
+        return queries;
+    }
+
 
     public String fetchSnippet() {
 
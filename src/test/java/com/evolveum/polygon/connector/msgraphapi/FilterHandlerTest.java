@@ -0,0 +1,87 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import com.evolveum.polygon.connector.msgraphapi.util.FilterHandler;
+import com.evolveum.polygon.connector.msgraphapi.util.ResourceQuery;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link FilterHandler}
+ */
+@Test(groups = "unit")
+public class FilterHandlerTest {
+
+    private ResourceQuery translate(Filter filter) {
+        return filter.accept(new FilterHandler(),
+                new ResourceQuery(ObjectClass.ACCOUNT, "id", "userPrincipalName"));
+    }
+
+    private Filter orOfNames(int count) {
+        Filter filter = FilterBuilder.equalTo(new Name("user0@example.com"));
+        for (int i = 1; i < count; i++) {
+            filter = FilterBuilder.or(filter, FilterBuilder.equalTo(new Name("user" + i + "@example.com")));
+        }
+        return filter;
+    }
+
+    @Test
+    public void testOrOfEqualsToIn() {
+        ResourceQuery query = translate(FilterBuilder.or(
+                FilterBuilder.equalTo(AttributeBuilder.build("mail", "a@example.com")),
+                FilterBuilder.or(
+                        FilterBuilder.equalTo(AttributeBuilder.build("mail", "o'brien@example.com")),
+                        FilterBuilder.equalTo(AttributeBuilder.build("mail", "a@example.com")))));
+
+        assertFalse(query.isChunked());
+        assertEquals("$filter=mail in ('a@example.com','o''brien@example.com')", query.toString());
+        assertEquals(1, query.toChunkQueries().size());
+    }
+
+    @Test
+    public void testLargeOrOfEqualsIsChunked() {
+        ResourceQuery query = translate(orOfNames(FilterHandler.IN_MAX_VALUES * 2 + 1));
+
+        assertTrue(query.isChunked());
+        List<String> queries = query.toChunkQueries();
+        assertEquals(3, queries.size());
+        assertTrue(queries.get(0).startsWith("$filter=userPrincipalName in ('user0@example.com',"));
+        assertEquals("$filter=userPrincipalName in ('user" + FilterHandler.IN_MAX_VALUES * 2 + "@example.com')",
+                queries.get(2));
+    }
+
+    @Test
+    public void testNotEqualsToNe() {
+        ResourceQuery query = translate(FilterBuilder.not(
+                FilterBuilder.equalTo(AttributeBuilder.build("department", "Sales"))));
+
+        assertEquals("$filter=department ne 'Sales'&$count=true", query.toString());
+    }
+
+    @Test
+    public void testCountQuery() {
+        ResourceQuery query = translate(FilterBuilder.not(
+                FilterBuilder.equalTo(AttributeBuilder.build("department", "Sales"))));
+        assertEquals("$filter=department ne 'Sales'", query.toCountQuery());
+
+        query = translate(FilterBuilder.equalTo(AttributeBuilder.build("department", "Sales")));
+        assertEquals(query.toString(), query.toCountQuery());
+    }
+
+    @Test
+    public void testOrOfDifferentAttributesIsNotCollapsed() {
+        ResourceQuery query = translate(FilterBuilder.or(
+                FilterBuilder.equalTo(AttributeBuilder.build("mail", "a@example.com")),
+                FilterBuilder.equalTo(AttributeBuilder.build("displayName", "A"))));
+
+        assertFalse(query.isChunked());
+        assertFalse(query.toString().contains(" in "));
+    }
+}
@@ -0,0 +1,74 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import com.evolveum.polygon.connector.msgraphapi.util.FilterNormalizer;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.AndFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.common.objects.filter.NotFilter;
+import org.identityconnectors.framework.common.objects.filter.OrFilter;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link FilterNormalizer}
+ */
+@Test(groups = "unit")
+public class FilterNormalizerTest {
+
+    private final FilterNormalizer normalizer = new FilterNormalizer();
+
+    private final Filter city = FilterBuilder.equalTo(AttributeBuilder.build("city", "Brno"));
+    private final Filter mail = FilterBuilder.startsWith(AttributeBuilder.build("mail", "john"));
+    private final Filter name = FilterBuilder.contains(AttributeBuilder.build("displayName", "John"));
+
+    @Test
+    public void testFlattenAndDeduplicate() {
+        Filter normalized = normalizer.normalize(FilterBuilder.and(
+                FilterBuilder.and(city, mail),
+                FilterBuilder.and(FilterBuilder.equalTo(AttributeBuilder.build("city", "Brno")), name)));
+
+        assertTrue(normalized instanceof AndFilter);
+        assertEquals(Arrays.asList(city, mail, name), new ArrayList<>(((AndFilter) normalized).getFilters()));
+        assertNull(normalizer.normalize(null));
+    }
+
+    @Test
+    public void testValuesNotConfused() {
+        Filter twoValues = FilterBuilder.equalTo(AttributeBuilder.build("mail", "a", "b"));
+        Filter oneValue = FilterBuilder.equalTo(AttributeBuilder.build("mail", "a, b"));
+
+        Filter normalized = normalizer.normalize(FilterBuilder.or(twoValues, oneValue));
+        assertTrue(normalized instanceof OrFilter);
+        assertEquals(Arrays.asList(twoValues, oneValue), new ArrayList<>(((OrFilter) normalized).getFilters()));
+
+        assertSame(twoValues, normalizer.normalize(twoValues));
+        assertSame(oneValue, normalizer.normalize(oneValue));
+    }
+
+    @Test
+    public void testNegations() {
+        assertSame(city, normalizer.normalize(FilterBuilder.not(FilterBuilder.not(city))));
+
+        Filter normalized = normalizer.normalize(FilterBuilder.not(FilterBuilder.and(city, mail)));
+        assertTrue(normalized instanceof OrFilter);
+        for (Filter operand : ((OrFilter) normalized).getFilters()) {
+            assertTrue(operand instanceof NotFilter);
+        }
+    }
+
+    @Test
+    public void testConstantFolding() {
+        assertSame(FilterNormalizer.MATCH_NONE, normalizer.normalize(FilterBuilder.and(city, FilterBuilder.not(city))));
+        assertSame(FilterNormalizer.MATCH_NONE, normalizer.normalize(FilterBuilder.and(
+                FilterBuilder.equalTo(new Uid("1")), FilterBuilder.equalTo(new Uid("2")))));
+        assertNull(normalizer.normalize(FilterBuilder.or(mail, FilterBuilder.not(mail))));
+        assertSame(city, normalizer.normalize(FilterBuilder.or(city,
+                FilterBuilder.and(mail, FilterBuilder.not(mail)))));
+    }
+}
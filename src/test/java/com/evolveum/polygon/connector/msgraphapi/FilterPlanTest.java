@@ -0,0 +1,103 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.filter.AndFilter;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link FilterPlan}
+ */
+@Test(groups = "unit")
+public class FilterPlanTest {
+
+    private static final Set<String> ENDS_WITH_ATTRS = Collections.singleton("mail");
+
+    private FilterPlan split(Filter filter) {
+        return FilterPlan.split(filter, f -> FilterPlan.isTranslatable(f, ENDS_WITH_ATTRS));
+    }
+
+    @Test
+    public void testTranslatableFilterIsPushed() {
+        Filter filter = FilterBuilder.and(
+                FilterBuilder.equalTo(AttributeBuilder.build("city", "Brno")),
+                FilterBuilder.endsWith(AttributeBuilder.build("mail", "@example.com")));
+        FilterPlan plan = split(filter);
+
+        assertSame(filter, plan.getPushed());
+        assertNull(plan.getResidual());
+        assertNull(split(null).getPushed());
+    }
+
+    @Test
+    public void testUntranslatableConjunctsAreResidual() {
+        Filter equals = FilterBuilder.equalTo(AttributeBuilder.build("city", "Brno"));
+        Filter endsWith = FilterBuilder.endsWith(AttributeBuilder.build("displayName", "son"));
+        Filter contains = FilterBuilder.contains(AttributeBuilder.build("displayName", "John"));
+        Filter secondContains = FilterBuilder.contains(AttributeBuilder.build("mail", "john"));
+        FilterPlan plan = split(FilterBuilder.and(FilterBuilder.and(equals, endsWith),
+                FilterBuilder.and(contains, secondContains)));
+
+        assertTrue(plan.getPushed() instanceof AndFilter);
+        assertEquals(Arrays.asList(equals, contains), new ArrayList<>(((AndFilter) plan.getPushed()).getFilters()));
+        assertTrue(plan.getResidual() instanceof AndFilter);
+        assertEquals(Arrays.asList(endsWith, secondContains),
+                new ArrayList<>(((AndFilter) plan.getResidual()).getFilters()));
+    }
+
+    @Test
+    public void testSearchInDisjunctionIsResidual() {
+        Filter filter = FilterBuilder.or(
+                FilterBuilder.contains(AttributeBuilder.build("displayName", "John")),
+                FilterBuilder.equalTo(AttributeBuilder.build("city", "Brno")));
+        FilterPlan plan = split(filter);
+
+        assertNull(plan.getPushed());
+        assertSame(filter, plan.getResidual());
+    }
+
+    @Test
+    public void testResidualEvaluation() {
+        FilterPlan plan = split(FilterBuilder.endsWith(AttributeBuilder.build("displayName", "son")));
+
+        OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("city").build();
+        OperationOptions searchOptions = plan.searchOptions(options);
+        assertEquals(new HashSet<>(Arrays.asList("city", "displayName")),
+                new HashSet<>(Arrays.asList(searchOptions.getAttributesToGet())));
+
+        List<ConnectorObject> handled = new ArrayList<>();
+        ResultsHandler handler = plan.resultsHandler(handled::add, Collections.singleton("city"));
+        assertTrue(handler.handle(user("1", "John Johnson")));
+        assertTrue(handler.handle(user("2", "Jane Doe")));
+
+        assertEquals(1, handled.size());
+        assertEquals("1", handled.get(0).getUid().getUidValue());
+        assertNull(handled.get(0).getAttributeByName("displayName"));
+        assertNotNull(handled.get(0).getAttributeByName("city"));
+    }
+
+    private static ConnectorObject user(String id, String displayName) {
+        return new ConnectorObjectBuilder()
+                .setUid(id)
+                .setName(new Name(id + "@example.com"))
+                .addAttribute("displayName", displayName)
+                .addAttribute("city", "Brno")
+                .build();
+    }
+}
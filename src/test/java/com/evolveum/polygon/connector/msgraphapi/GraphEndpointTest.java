@@ -0,0 +1,188 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link GraphEndpoint}
+ */
+@Test(groups = "unit")
+public class GraphEndpointTest {
+
+    private static final String SECOND_PAGE = "https://graph.microsoft.com/v1.0/users?$skiptoken=page2";
+
+    /**
+     * Users 1-3 in the first response, 4-5 in the second one.
+     */
+    private final GraphEndpoint endpoint = new MockGraphEndpoint(null) {
+        @Override
+        protected JSONObject callRequest(HttpRequestBase request, boolean parseResult) {
+            if (request.getURI().toString().equals(SECOND_PAGE)) {
+                return new JSONObject().put("value", users(4, 5));
+            }
+            return new JSONObject().put("value", users(1, 3)).put("@odata.nextLink", SECOND_PAGE);
+        }
+    };
+
+    private static JSONArray users(int from, int to) {
+        JSONArray users = new JSONArray();
+        for (int i = from; i <= to; i++) {
+            users.put(new JSONObject().put("id", String.valueOf(i)));
+        }
+        return users;
+    }
+
+    private String page(String cookie, List<String> ids) {
+        return endpoint.executePagedListRequest("/users", null,
+                new OperationOptionsBuilder().setPageSize(2).setPagedResultsCookie(cookie).build(),
+                (options, user) -> ids.add(user.getString("id")));
+    }
+
+    @Test
+    public void testPagedListRequest() {
+        List<String> ids = new ArrayList<>();
+
+        String cookie = page(null, ids);
+        assertEquals(Arrays.asList("1", "2"), ids);
+        assertTrue(cookie.startsWith("2|https://graph.microsoft.com/"));
+
+        cookie = page(cookie, ids);
+        assertEquals(Arrays.asList("1", "2", "3", "4"), ids);
+        assertEquals("1|" + SECOND_PAGE, cookie);
+
+        cookie = page(cookie, ids);
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"), ids);
+        assertNull(cookie);
+    }
+
+    @Test
+    public void testPagedResultsOffset() {
+        List<String> ids = new ArrayList<>();
+        String cookie = endpoint.executePagedListRequest("/users", null,
+                new OperationOptionsBuilder().setPageSize(2).setPagedResultsOffset(3).build(),
+                (options, user) -> ids.add(user.getString("id")));
+
+        assertEquals(Arrays.asList("3", "4"), ids);
+        assertEquals("1|" + SECOND_PAGE, cookie);
+    }
+
+    @Test(expectedExceptions = InvalidAttributeValueException.class)
+    public void testForeignCookie() {
+        page("https://example.com/users", new ArrayList<>());
+    }
+
+    @Test
+    public void testGraphLink() {
+        assertTrue(endpoint.isGraphLink(SECOND_PAGE));
+        assertTrue(endpoint.isGraphLink("https://graph.microsoft.com/v1.0/users/delta?$skiptoken=abc"));
+        assertFalse(endpoint.isGraphLink("https://graph.microsoft.com.example.com/v1.0/users/delta"));
+        assertFalse(endpoint.isGraphLink(null));
+    }
+
+    @Test
+    public void testBatchRequest() {
+        GraphEndpoint batchEndpoint = new MockGraphEndpoint(null) {
+            @Override
+            protected JSONObject callReadRequest(HttpEntityEnclosingRequestBase request, JSONObject json) {
+                assertEquals(2, json.getJSONArray("requests").length());
+                // Graph returns the responses in any order
+                String responses = "{\"responses\":[{\"id\":\"1\",\"status\":404},"
+                        + "{\"id\":\"0\",\"status\":200,\"body\":{\"id\":\"u1\",\"surname\":\"Dvo\u0159\u00e1k\"}}]}";
+                try {
+                    return GraphEndpoint.readJSONResponse(
+                            new ByteArrayEntity(responses.getBytes(StandardCharsets.UTF_8)));
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+
+        List<JSONObject> responses = batchEndpoint.executeBatchRequest(Arrays.asList("/users/u1", "/users/u2"));
+        assertEquals(2, responses.size());
+        assertEquals("u1", responses.get(0).getJSONObject("body").getString("id"));
+        assertEquals("Dvo\u0159\u00e1k", responses.get(0).getJSONObject("body").getString("surname"));
+        assertEquals(404, responses.get(1).getInt("status"));
+    }
+
+    @Test
+    public void testTooManyRoleDefinitions() {
+        MSGraphConfiguration configuration = new MSGraphConfiguration();
+        configuration.setRoleCacheLifetime(300);
+        configuration.setRoleCacheMaxSize(1);
+        final int[] listings = {0};
+        GraphEndpoint roleEndpoint = new MockGraphEndpoint(configuration) {
+            @Override
+            protected JSONArray executeListRequest(String path, String customQuery, OperationOptions options,
+                                                   boolean paging) {
+                listings[0]++;
+                return users(1, 2);
+            }
+        };
+
+        assertNull(roleEndpoint.getRoleDefinitionCache());
+        assertNull(roleEndpoint.getRoleDefinitionCache());
+        assertEquals(1, listings[0]);
+
+        roleEndpoint.invalidateRoleDefinitionCache();
+        assertNull(roleEndpoint.getRoleDefinitionCache());
+        assertEquals(2, listings[0]);
+    }
+
+    @Test
+    public void testReadJSONResponse() throws Exception {
+        String user = "{\"displayName\":\"\u017dofie \u0160\u0165astn\u00e1\",\"city\":\"Pl\u017ee\u0148\"}";
+
+        JSONObject parsed = GraphEndpoint.readJSONResponse(new ByteArrayEntity(user.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("\u017dofie \u0160\u0165astn\u00e1", parsed.getString("displayName"));
+        assertEquals("Pl\u017ee\u0148", parsed.getString("city"));
+
+        parsed = GraphEndpoint.readJSONResponse(new ByteArrayEntity(user.getBytes("ISO-8859-2"),
+                ContentType.create("application/json", "ISO-8859-2")));
+        assertEquals("\u017dofie \u0160\u0165astn\u00e1", parsed.getString("displayName"));
+
+        assertNull(GraphEndpoint.readJSONResponse(null));
+    }
+
+    @Test
+    public void testPrefetchOnlyWhenAsked() {
+        MSGraphConfiguration configuration = new MSGraphConfiguration();
+        configuration.setPrefetchPages(2);
+        final List<Thread> fetchers = new ArrayList<>();
+        GraphEndpoint listEndpoint = new MockGraphEndpoint(configuration) {
+            @Override
+            protected JSONObject callRequest(HttpRequestBase request, boolean parseResult) {
+                synchronized (fetchers) {
+                    fetchers.add(Thread.currentThread());
+                }
+                return endpoint.callRequest(request, parseResult);
+            }
+        };
+
+        List<String> ids = new ArrayList<>();
+        listEndpoint.executeListRequest("/users", null, null, true, (options, user) -> ids.add(user.getString("id")));
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"), ids);
+        assertEquals(Arrays.asList(Thread.currentThread(), Thread.currentThread()), fetchers);
+
+        fetchers.clear();
+        listEndpoint.executeListRequest("/users", null, null, true, 2, (options, user) -> ids.add(user.getString("id")));
+        assertEquals(10, ids.size());
+        assertEquals(2, fetchers.size());
+        assertNotSame(Thread.currentThread(), fetchers.get(0));
+    }
+}
@@ -6,12 +6,20 @@ import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeDelta;
 import org.identityconnectors.framework.common.objects.AttributeDeltaBuilder;
+import org.identityconnectors.framework.common.objects.AttributeValueCompleteness;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SortKey;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -20,6 +28,8 @@ import java.util.Set;
 import static com.evolveum.polygon.connector.msgraphapi.GroupProcessing.EXCLUDE_ATTRS_OF_GROUP;
 import static com.evolveum.polygon.connector.msgraphapi.GroupProcessing.UPDATABLE_MULTIPLE_VALUE_ATTRS_OF_GROUP;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
 
 /**
  * Test case for {@link GroupProcessing}
@@ -45,6 +55,24 @@ public class GroupProcessingTest extends BasicConfigurationForTests {
         assertEquals("f034f71e-22a8-489b-8492-f5f7133559c1", ids.get(1));
     }
 
+    @Test
+    public void testCompleteExpansion() throws Exception {
+        final JSONObject group = new JSONObject()
+                .put("members", parseResource("groupMembers.json").getJSONArray("value"));
+        final JSONArray expanded = groupProcessing.getCompleteExpansion(group, "members");
+        assertEquals(2, expanded.length());
+        assertNull(groupProcessing.getCompleteExpansion(group, "owners"));
+    }
+
+    @Test
+    public void testTruncatedExpansion() {
+        final JSONArray members = new JSONArray();
+        for (int i = 0; i < ObjectProcessing.EXPAND_LIMIT; i++) {
+            members.put(new JSONObject().put("id", String.valueOf(i)));
+        }
+        assertNull(groupProcessing.getCompleteExpansion(new JSONObject().put("members", members), "members"));
+    }
+
     @Test
     public void testBuildLayeredAttributeJSON() {
         Set<Attribute> attrs = new HashSet<>();
@@ -102,4 +130,194 @@ public class GroupProcessingTest extends BasicConfigurationForTests {
         assertEquals(1, groupTypes.length());
         assertEquals("DynamicMembership", groupTypes.getString(0));
     }
+
+    @Test
+    public void testOrderByClause() {
+        Set<String> sortable = Collections.singleton("displayName");
+        OperationOptions byName = new OperationOptionsBuilder().setSortKeys(new SortKey(Name.NAME, false)).build();
+
+        assertEquals("&$orderby=displayName desc",
+                groupProcessing.orderByClause(byName, sortable, "displayName", null));
+        assertEquals("&$orderby=displayName desc&$count=true",
+                groupProcessing.orderByClause(byName, sortable, "displayName", "$filter=mail eq 'a@example.com'"));
+        assertEquals("&$orderby=displayName desc",
+                groupProcessing.orderByClause(byName, sortable, "displayName", "$filter=mail ne 'a'&$count=true"));
+
+        OperationOptions byMail = new OperationOptionsBuilder().setSortKeys(new SortKey("mail", true)).build();
+        assertEquals("", groupProcessing.orderByClause(byMail, sortable, "displayName", null));
+        assertEquals("", groupProcessing.orderByClause(new OperationOptionsBuilder().build(), sortable,
+                "displayName", null));
+    }
+
+    @Test
+    public void testConvertMembersDelta() {
+        final JSONObject group = new JSONObject()
+                .put("id", "g1")
+                .put("displayName", "Group")
+                .put("members@delta", new JSONArray()
+                        .put(new JSONObject().put("id", "u1"))
+                        .put(new JSONObject().put("id", "u2").put("@removed", new JSONObject().put("reason", "deleted"))));
+        final OperationOptions options = new OperationOptionsBuilder()
+                .setAttributesToGet("members").setAllowPartialAttributeValues(true).build();
+        final GroupProcessing processing = new GroupProcessing(new MockGraphEndpoint(null) {
+            @Override
+            protected JSONArray executeListRequest(String path, String customQuery, OperationOptions options,
+                                                   boolean paging) {
+                assertEquals("/groups/g1/members", path);
+                return new JSONArray()
+                        .put(new JSONObject().put("id", "u1"))
+                        .put(new JSONObject().put("id", "u3"));
+            }
+        });
+
+        assertTrue(processing.getDeltaSelector(options).endsWith(",members"));
+
+        // the removed member u2 is left out of the complete members
+        final ConnectorObject connectorObject = processing.convertDeltaToConnectorObject(group, options);
+        final Attribute members = connectorObject.getAttributeByName("members");
+        assertEquals(Arrays.asList("u1", "u3"), members.getValue());
+        assertEquals(AttributeValueCompleteness.COMPLETE, members.getAttributeValueCompleteness());
+    }
+
+    @Test
+    public void testPagedChunkedQuery() {
+        final GroupProcessing processing = chunkedProcessing();
+        final List<String> chunkQueries = Arrays.asList("q1", "q2");
+
+        final List<ConnectorObject> page = new ArrayList<>();
+        processing.listChunkedObjects("/groups", chunkQueries, pagedOptions(null, null), true, page::add);
+        assertEquals(Arrays.asList("g1", "g2"), uids(page));
+        assertEquals("2", processing.getSearchResult().getPagedResultsCookie());
+        assertEquals(3, processing.getSearchResult().getRemainingPagedResults());
+
+        page.clear();
+        processing.listChunkedObjects("/groups", chunkQueries, pagedOptions("2", null), true, page::add);
+        assertEquals(Arrays.asList("g3", "g4"), uids(page));
+        assertEquals("4", processing.getSearchResult().getPagedResultsCookie());
+
+        page.clear();
+        processing.listChunkedObjects("/groups", chunkQueries, pagedOptions("4", null), true, page::add);
+        assertEquals(Collections.singletonList("g5"), uids(page));
+        assertNull(processing.getSearchResult().getPagedResultsCookie());
+        assertEquals(0, processing.getSearchResult().getRemainingPagedResults());
+
+        page.clear();
+        processing.listChunkedObjects("/groups", chunkQueries, pagedOptions(null, 4), true, page::add);
+        assertEquals(Arrays.asList("g4", "g5"), uids(page));
+        assertNull(processing.getSearchResult().getPagedResultsCookie());
+    }
+
+    @Test
+    public void testSortedChunkedQuery() {
+        final GroupProcessing processing = chunkedProcessing();
+        final List<String> chunkQueries = Arrays.asList("q1", "q2");
+
+        final List<ConnectorObject> objects = new ArrayList<>();
+        processing.listChunkedObjects("/groups", chunkQueries, new OperationOptionsBuilder()
+                .setAttributesToGet("displayName").setSortKeys(new SortKey("displayName", false)).build(),
+                true, objects::add);
+        assertEquals(Arrays.asList("g5", "g4", "g3", "g2", "g1"), uids(objects));
+
+        objects.clear();
+        processing.listChunkedObjects("/groups", chunkQueries, new OperationOptionsBuilder()
+                .setAttributesToGet("displayName").setSortKeys(new SortKey(Name.NAME, false))
+                .setPageSize(2).setPagedResultsCookie("2").build(), true, objects::add);
+        assertEquals(Arrays.asList("g3", "g2"), uids(objects));
+        assertEquals("4", processing.getSearchResult().getPagedResultsCookie());
+    }
+
+    @Test
+    public void testRemainingCountOnRequest() {
+        final List<String> counted = new ArrayList<>();
+        final GroupProcessing processing = countingProcessing(counted);
+
+        processing.listObjects("/groups", "q1", pagedOptions(null, null), true, connectorObject -> true);
+        processing.countRemainingResults("/groups", "$filter=f", pagedOptions(null, null));
+        assertTrue(counted.isEmpty());
+        assertEquals("next", processing.getSearchResult().getPagedResultsCookie());
+        assertEquals(-1, processing.getSearchResult().getRemainingPagedResults());
+
+        final OperationOptions countRemaining = new OperationOptionsBuilder(pagedOptions(null, null))
+                .setOption(ObjectProcessing.OP_COUNT_REMAINING, true).build();
+        // a processing serves a single search
+        final GroupProcessing countingProcessing = countingProcessing(counted);
+        countingProcessing.listObjects("/groups", "q1", countRemaining, true, connectorObject -> true);
+        countingProcessing.countRemainingResults("/groups", "$filter=f", countRemaining);
+        assertEquals(Collections.singletonList("$filter=f"), counted);
+        assertEquals(8, countingProcessing.getSearchResult().getRemainingPagedResults());
+    }
+
+    @Test
+    public void testCountOnly() {
+        final List<String> counted = new ArrayList<>();
+        final GroupProcessing processing = countingProcessing(counted);
+
+        processing.countObjects("/groups", "$filter=f");
+        assertEquals(Collections.singletonList("$filter=f"), counted);
+        assertNull(processing.getSearchResult().getPagedResultsCookie());
+        assertEquals(10, processing.getSearchResult().getRemainingPagedResults());
+    }
+
+    @Test
+    public void testCountListedChunks() {
+        final GroupProcessing processing = chunkedProcessing();
+        final OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("displayName").build();
+
+        // g3 matches both chunks and is counted once
+        processing.countListedObjects(countingHandler -> processing.listChunkedObjects("/groups",
+                Arrays.asList("q1", "q2"), options, true, countingHandler));
+        assertNull(processing.getSearchResult().getPagedResultsCookie());
+        assertEquals(5, processing.getSearchResult().getRemainingPagedResults());
+    }
+
+    /**
+     * Processing of ten groups listed by pages of two, recording the count requests.
+     */
+    private static GroupProcessing countingProcessing(List<String> counted) {
+        return new GroupProcessing(new MockGraphEndpoint(new MSGraphConfiguration()) {
+            @Override
+            protected String executePagedListRequest(String path, String customQuery, OperationOptions options,
+                                                     ObjectProcessing.JSONObjectHandler handler) {
+                for (int i = 1; i <= options.getPageSize(); i++) {
+                    handler.handle(options, new JSONObject().put("id", "g" + i).put("displayName", "Group " + i));
+                }
+                return "next";
+            }
+
+            @Override
+            protected int executeCountRequest(String path, String customQuery) {
+                counted.add(customQuery);
+                return 10;
+            }
+        });
+    }
+
+    private static OperationOptions pagedOptions(String cookie, Integer offset) {
+        return new OperationOptionsBuilder().setAttributesToGet("displayName").setPageSize(2)
+                .setPagedResultsCookie(cookie).setPagedResultsOffset(offset).build();
+    }
+
+    /**
+     * Processing listing groups g1-g3 by the chunk query q1 and g3-g5 by the chunk query q2.
+     */
+    private static GroupProcessing chunkedProcessing() {
+        return new GroupProcessing(new MockGraphEndpoint(new MSGraphConfiguration()) {
+            @Override
+            protected void executeListRequest(String path, String customQuery, OperationOptions options,
+                                              boolean paging, ObjectProcessing.JSONObjectHandler handler) {
+                final int first = "q1".equals(customQuery) ? 1 : 3;
+                for (int i = first; i < first + 3; i++) {
+                    handler.handle(options, new JSONObject().put("id", "g" + i).put("displayName", "Group " + i));
+                }
+            }
+        });
+    }
+
+    private static List<String> uids(List<ConnectorObject> objects) {
+        final List<String> uids = new ArrayList<>();
+        for (ConnectorObject object : objects) {
+            uids.add(object.getUid().getUidValue());
+        }
+        return uids;
+    }
 }
@@ -0,0 +1,89 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Unit test for {@link JSONObjectMapper}.
+ */
+@Test(groups = "unit")
+public class JSONObjectMapperTest {
+
+    private final JSONObjectMapper mapper = JSONObjectMapper.builder()
+            .rename("accountEnabled", Boolean.class, "__ENABLE__")
+            .single(Boolean.class, "accountEnabled")
+            .single(String.class, "displayName", "city")
+            .single(byte[].class, "photo")
+            .multi("businessPhones")
+            .item("onPremisesExtensionAttributes", "extensionAttribute1", String.class)
+            .objectItem("manager", "id", String.class)
+            .array("assignedLicenses", "skuId", String.class)
+            .inheritPermissions("inheritsPermissionsFrom@odata.context")
+            .build();
+
+    private ConnectorObject map(String json) {
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder()
+                .setObjectClass(ObjectClass.ACCOUNT)
+                .setUid("1")
+                .setName("1");
+        mapper.map(new JSONObject(json), builder);
+        return builder.build();
+    }
+
+    @Test
+    public void testSingleAndRename() {
+        ConnectorObject co = map("{\"accountEnabled\":true,\"displayName\":\"Tom &amp; Jerry\",\"city\":\"\"}");
+        assertEquals(Collections.singletonList(Boolean.TRUE), co.getAttributeByName("__ENABLE__").getValue());
+        assertEquals(Collections.singletonList(Boolean.TRUE), co.getAttributeByName("accountEnabled").getValue());
+        assertEquals(Collections.singletonList("Tom & Jerry"), co.getAttributeByName("displayName").getValue());
+        assertNull(co.getAttributeByName("city"));
+    }
+
+    @Test
+    public void testBinary() {
+        ConnectorObject co = map("{\"photo\":\"AQID\"}");
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, (byte[]) co.getAttributeByName("photo").getValue().get(0)));
+    }
+
+    @Test
+    public void testNestedValues() {
+        ConnectorObject co = map("{\"businessPhones\":[\"1\",\"2\"],"
+                + "\"onPremisesExtensionAttributes\":{\"extensionAttribute1\":\"ext\"},"
+                + "\"manager\":{\"id\":\"m\"},"
+                + "\"assignedLicenses\":[{\"skuId\":\"a\"},{\"skuId\":\"b\"}]}");
+        assertEquals(Arrays.asList("1", "2"), co.getAttributeByName("businessPhones").getValue());
+        assertEquals(Collections.singletonList("ext"),
+                co.getAttributeByName("onPremisesExtensionAttributes.extensionAttribute1").getValue());
+        assertEquals(Collections.singletonList("m"), co.getAttributeByName("manager.id").getValue());
+        assertEquals(Arrays.asList("a", "b"), co.getAttributeByName("assignedLicenses.skuId").getValue());
+    }
+
+    @Test
+    public void testInheritPermissions() {
+        ConnectorObject co = map("{\"inheritsPermissionsFrom@odata.context\":\"https://graph.microsoft.com/v1.0/$metadata"
+                + "#roleManagement/directory/roleDefinitions('abc')/inheritsPermissionsFrom\"}");
+        assertEquals(Collections.singletonList("abc"),
+                co.getAttributeByName("inheritsPermissionsFrom@odata.context").getValue());
+    }
+
+    @Test
+    public void testUnmappedKeysIgnored() {
+        ConnectorObject co = map("{\"foo\":\"bar\",\"manager\":null}");
+        assertNull(co.getAttributeByName("foo"));
+        assertNull(co.getAttributeByName("manager.id"));
+    }
+
+    @Test(expectedExceptions = InvalidAttributeValueException.class)
+    public void testMultiNotArray() {
+        map("{\"businessPhones\":\"1\"}");
+    }
+}
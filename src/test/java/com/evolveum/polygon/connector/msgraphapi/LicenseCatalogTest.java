@@ -0,0 +1,58 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link LicenseCatalog}
+ */
+@Test(groups = "unit")
+public class LicenseCatalogTest {
+
+    @Test
+    public void testCompileDisabledPlans() {
+        Map<String, List<String>> plans = LicenseCatalog.compileDisabledPlans(new String[]{
+                "sku1:plan1,plan2",
+                "ENTERPRISEPACK:SWAY [sku1:plan3]",
+                "sku2:plan4",
+                "sku1:plan1",
+                "malformed",
+                "NAME:PLAN [nocolon]"
+        });
+
+        assertEquals(2, plans.size());
+        assertEquals(Arrays.asList("plan1", "plan2", "plan3"), plans.get("sku1"));
+        assertEquals(Arrays.asList("plan4"), plans.get("sku2"));
+        assertTrue(LicenseCatalog.compileDisabledPlans(new String[0]).isEmpty());
+    }
+
+    @Test
+    public void testSkuCaching() {
+        final int[] loads = {0};
+        final JSONArray skus = new JSONArray().put(new JSONObject().put("id", "t_sku1").put("skuId", "sku1"));
+
+        LicenseCatalog disabled = new LicenseCatalog(new String[0], 0);
+        disabled.getSkus(() -> { loads[0]++; return skus; });
+        disabled.getSkus(() -> { loads[0]++; return skus; });
+        assertEquals(2, loads[0]);
+
+        loads[0] = 0;
+        LicenseCatalog catalog = new LicenseCatalog(new String[0], 60000);
+        List<JSONObject> first = catalog.getSkus(() -> { loads[0]++; return skus; });
+        first.get(0).remove("skuId");
+        List<JSONObject> second = catalog.getSkus(() -> { loads[0]++; return skus; });
+        assertEquals(1, loads[0]);
+        assertEquals("sku1", second.get(0).getString("skuId"));
+
+        catalog.invalidateSkus();
+        catalog.getSkus(() -> { loads[0]++; return skus; });
+        assertEquals(2, loads[0]);
+    }
+}
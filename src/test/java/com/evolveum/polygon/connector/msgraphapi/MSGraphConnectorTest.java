@@ -0,0 +1,179 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link MSGraphConnector}
+ */
+@Test(groups = "unit")
+public class MSGraphConnectorTest {
+
+    private static final String DELTA_LINK = "https://graph.microsoft.com/v1.0/groups/delta?$deltatoken=start";
+    private static final String SECOND_PAGE = "https://graph.microsoft.com/v1.0/groups/delta?$skiptoken=second";
+    private static final String NEXT_DELTA_LINK = "https://graph.microsoft.com/v1.0/groups/delta?$deltatoken=next";
+
+    private static MSGraphConnector connector(GraphEndpoint endpoint) {
+        MSGraphConfiguration configuration = new MSGraphConfiguration();
+        configuration.setClientId("client");
+        configuration.setTenantId("tenant");
+        MSGraphConnector connector = new MSGraphConnector() {
+            @Override
+            public GraphEndpoint getGraphEndpoint() {
+                return endpoint;
+            }
+        };
+        connector.init(configuration);
+        return connector;
+    }
+
+    @Test
+    public void testMatchNoneSearchResult() {
+        MSGraphConnector connector = connector(new MockGraphEndpoint(null));
+        List<ConnectorObject> objects = new ArrayList<>();
+        List<SearchResult> results = new ArrayList<>();
+
+        connector.executeQuery(ObjectClass.ACCOUNT,
+                FilterBuilder.and(FilterBuilder.equalTo(new Uid("1")), FilterBuilder.equalTo(new Uid("2"))),
+                new SearchResultsHandler() {
+                    @Override
+                    public boolean handle(ConnectorObject connectorObject) {
+                        return objects.add(connectorObject);
+                    }
+
+                    @Override
+                    public void handleResult(SearchResult result) {
+                        results.add(result);
+                    }
+                },
+                new OperationOptionsBuilder().setOption("countOnly", true).build());
+
+        assertTrue(objects.isEmpty());
+        assertEquals(1, results.size());
+        assertEquals(0, results.get(0).getRemainingPagedResults());
+    }
+
+    @Test
+    public void testSyncPages() {
+        List<String> requests = new ArrayList<>();
+        MSGraphConnector connector = connector(syncEndpoint(requests));
+        List<SyncDelta> deltas = new ArrayList<>();
+        List<Integer> requestsAtDelta = new ArrayList<>();
+        List<SyncToken> results = new ArrayList<>();
+
+        connector.sync(ObjectClass.GROUP, new SyncToken(DELTA_LINK), new SyncTokenResultsHandler() {
+            @Override
+            public boolean handle(SyncDelta delta) {
+                requestsAtDelta.add(requests.size());
+                return deltas.add(delta);
+            }
+
+            @Override
+            public void handleResult(SyncToken result) {
+                results.add(result);
+            }
+        }, new OperationOptionsBuilder().build());
+
+        assertEquals(2, requests.size());
+        assertEquals(3, deltas.size());
+        // the deltas of the first page are handled before the second page is requested
+        assertEquals(1, (int) requestsAtDelta.get(0));
+        assertEquals(1, (int) requestsAtDelta.get(1));
+        assertEquals(2, (int) requestsAtDelta.get(2));
+
+        assertEquals("g1", deltas.get(0).getUid().getUidValue());
+        assertEquals(DELTA_LINK, deltas.get(0).getToken().getValue());
+        assertEquals(SECOND_PAGE, deltas.get(1).getToken().getValue());
+        assertEquals("g3", deltas.get(2).getUid().getUidValue());
+        assertEquals(NEXT_DELTA_LINK, deltas.get(2).getToken().getValue());
+
+        assertEquals(1, results.size());
+        assertEquals(NEXT_DELTA_LINK, results.get(0).getValue());
+    }
+
+    @Test
+    public void testSyncStoppedByHandler() {
+        List<String> requests = new ArrayList<>();
+        MSGraphConnector connector = connector(syncEndpoint(requests));
+        List<SyncDelta> deltas = new ArrayList<>();
+        List<SyncToken> results = new ArrayList<>();
+
+        connector.sync(ObjectClass.GROUP, new SyncToken(DELTA_LINK), new SyncTokenResultsHandler() {
+            @Override
+            public boolean handle(SyncDelta delta) {
+                deltas.add(delta);
+                return false;
+            }
+
+            @Override
+            public void handleResult(SyncToken result) {
+                results.add(result);
+            }
+        }, new OperationOptionsBuilder().build());
+
+        assertEquals(1, requests.size());
+        assertEquals(1, deltas.size());
+        assertEquals(DELTA_LINK, deltas.get(0).getToken().getValue());
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void testSyncResumedFromPage() {
+        List<String> requests = new ArrayList<>();
+        MSGraphConnector connector = connector(syncEndpoint(requests));
+        List<SyncDelta> deltas = new ArrayList<>();
+
+        connector.sync(ObjectClass.GROUP, new SyncToken(SECOND_PAGE), deltas::add,
+                new OperationOptionsBuilder().build());
+
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).startsWith(SECOND_PAGE + "&"));
+        assertEquals(1, deltas.size());
+        assertEquals("g3", deltas.get(0).getUid().getUidValue());
+        assertEquals(NEXT_DELTA_LINK, deltas.get(0).getToken().getValue());
+    }
+
+    /**
+     * Endpoint returning two pages of group deltas, the first page from {@link #DELTA_LINK} with two groups and the
+     * second page from {@link #SECOND_PAGE} with one group.
+     */
+    private static GraphEndpoint syncEndpoint(List<String> requests) {
+        return new MockGraphEndpoint(null) {
+            @Override
+            protected JSONObject callRequest(HttpRequestBase request, boolean parseResult) {
+                String uri = request.getURI().toString();
+                requests.add(uri);
+                if (uri.startsWith(DELTA_LINK + "&")) {
+                    return new JSONObject()
+                            .put("value", new JSONArray().put(group("g1")).put(group("g2")))
+                            .put("@odata.nextLink", SECOND_PAGE);
+                }
+                assertTrue(uri, uri.startsWith(SECOND_PAGE + "&"));
+                return new JSONObject()
+                        .put("value", new JSONArray().put(group("g3")))
+                        .put("@odata.deltaLink", NEXT_DELTA_LINK);
+            }
+        };
+    }
+
+    private static JSONObject group(String id) {
+        return new JSONObject().put("id", id).put("displayName", "Group " + id);
+    }
+}
@@ -0,0 +1,116 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeDeltaBuilder;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link MembershipIndex}
+ */
+@Test(groups = "unit")
+public class MembershipIndexTest {
+
+    /**
+     * Endpoint of groups g1 with members u1, u2 and owner u3, and g2 with member u1, counting the group listings.
+     */
+    private static class IndexedEndpoint extends MockGraphEndpoint {
+
+        private final Map<String, List<String>> related = new HashMap<>();
+        private int builds;
+
+        IndexedEndpoint() {
+            super(new MSGraphConfiguration());
+            related.put("/groups", Arrays.asList("g1", "g2"));
+            related.put("/groups/g1/members", Arrays.asList("u1", "u2"));
+            related.put("/groups/g1/owners", Collections.singletonList("u3"));
+            related.put("/groups/g2/members", Collections.singletonList("u1"));
+        }
+
+        @Override
+        protected void executeListRequest(String path, String customQuery, OperationOptions options,
+                                          boolean paging, ObjectProcessing.JSONObjectHandler handler) {
+            if ("/groups".equals(path)) {
+                builds++;
+            }
+            for (String id : related.getOrDefault(path, Collections.emptyList())) {
+                if (!handler.handle(options, new JSONObject().put("id", id))) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        protected JSONObject callRequest(HttpRequestBase request, boolean parseResult) {
+            return null;
+        }
+
+        @Override
+        protected void callRequestNoContent(HttpEntityEnclosingRequestBase request, Set<Attribute> attributes,
+                                            JSONObject jsonObject) {
+            // Do nothing
+        }
+    }
+
+    @Test
+    public void testBuild() {
+        MembershipIndex index = MembershipIndex.build(new IndexedEndpoint(), true, 10, Long.MAX_VALUE);
+
+        assertTrue(index.isComplete());
+        assertTrue(index.hasOwners());
+        assertEquals(Arrays.asList("g1", "g2"), index.getMemberOf("u1"));
+        assertEquals(Collections.singletonList("g1"), index.getMemberOf("u2"));
+        assertEquals(Collections.singletonList("g1"), index.getOwnerOf("u3"));
+        assertTrue(index.getMemberOf("u3").isEmpty());
+        assertFalse(index.isExpired(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testMaxLinks() {
+        MembershipIndex index = MembershipIndex.build(new IndexedEndpoint(), false, 2, Long.MAX_VALUE);
+
+        assertFalse(index.isComplete());
+        assertTrue(index.getMemberOf("u1").isEmpty());
+    }
+
+    @Test
+    public void testInvalidation() {
+        IndexedEndpoint endpoint = new IndexedEndpoint();
+        GroupProcessing groupProcessing = new GroupProcessing(endpoint);
+
+        assertNotNull(endpoint.getMembershipIndex(false));
+        assertNotNull(endpoint.getMembershipIndex(false));
+        assertEquals(1, endpoint.builds);
+
+        // ownership is not in the index yet
+        assertNotNull(endpoint.getMembershipIndex(true));
+        assertEquals(2, endpoint.builds);
+
+        groupProcessing.delete(new Uid("g2"));
+        assertNotNull(endpoint.getMembershipIndex(true));
+        assertEquals(3, endpoint.builds);
+
+        groupProcessing.addOrRemoveMember(new Uid("g1"),
+                AttributeDeltaBuilder.build("members", null, Collections.singletonList("u2")), "/groups");
+        assertNotNull(endpoint.getMembershipIndex(true));
+        assertEquals(4, endpoint.builds);
+
+        groupProcessing.addOrRemoveOwner(new Uid("g1"),
+                AttributeDeltaBuilder.build("owners", Collections.singletonList("u1"), null), "/groups");
+        assertNotNull(endpoint.getMembershipIndex(true));
+        assertEquals(5, endpoint.builds);
+    }
+}
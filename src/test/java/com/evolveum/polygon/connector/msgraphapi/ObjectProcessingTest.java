@@ -1,11 +1,20 @@
 package com.evolveum.polygon.connector.msgraphapi;
 
 import org.identityconnectors.framework.common.exceptions.ConfigurationException;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.testng.Assert;
 import org.testng.AssertJUnit;
 import org.testng.annotations.DataProvider;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import static org.testng.AssertJUnit.*;
 
 /**
@@ -33,4 +42,56 @@ public class ObjectProcessingTest {
 	public void testSelector_valid() {
 		assertEquals("$select=foo,bar,baz", ObjectProcessing.selector("foo", "bar", "baz"));
 	}
+
+	@Test
+	public void testUidValues() {
+		Filter uids = FilterBuilder.or(FilterBuilder.equalTo(new Uid("1")),
+				FilterBuilder.or(FilterBuilder.equalTo(new Uid("2")), FilterBuilder.equalTo(new Uid("1"))));
+		assertEquals(Arrays.asList("1", "2"), ObjectProcessing.toUidValues(uids));
+
+		assertNull(ObjectProcessing.toUidValues(FilterBuilder.equalTo(new Uid("1"))));
+		assertNull(ObjectProcessing.toUidValues(FilterBuilder.or(FilterBuilder.equalTo(new Uid("1")),
+				FilterBuilder.equalTo(new Name("john@example.com")))));
+	}
+
+	@Test
+	public void testSingleExpandClause() {
+		assertEquals("&$expand=manager($select=id)", ObjectProcessing.singleExpandClause("manager", null));
+		assertEquals("&$expand=manager($select=id)",
+				ObjectProcessing.singleExpandClause("manager", "$filter=city eq 'Brno'"));
+		assertEquals("", ObjectProcessing.singleExpandClause("manager", "$filter=city eq 'Brno'&$count=true"));
+	}
+
+	@Test
+	public void testCoalesceDeltas() {
+		JSONArray value = new JSONArray()
+				.put(new JSONObject().put("id", "1").put("displayName", "Group").put("mail", "group@example.com")
+						.put("members@delta", new JSONArray().put(new JSONObject().put("id", "a"))))
+				.put(new JSONObject().put("id", "2").put("displayName", "Other"))
+				.put(new JSONObject().put("id", "1").put("displayName", "Renamed")
+						.put("members@delta", new JSONArray()
+								.put(new JSONObject().put("id", "a").put("@removed", new JSONObject()))
+								.put(new JSONObject().put("id", "b"))))
+				.put(new JSONObject().put("id", "2").put("@removed", new JSONObject().put("reason", "changed")));
+
+		JSONArray coalesced = ObjectProcessing.coalesceDeltas(value, Collections.singleton("members@delta"));
+		assertEquals(2, coalesced.length());
+
+		JSONObject group = coalesced.getJSONObject(0);
+		assertEquals("Renamed", group.getString("displayName"));
+		assertEquals("group@example.com", group.getString("mail"));
+		JSONArray members = group.getJSONArray("members@delta");
+		assertEquals(2, members.length());
+		assertEquals("a", members.getJSONObject(0).getString("id"));
+		assertTrue(members.getJSONObject(0).has("@removed"));
+		assertEquals("b", members.getJSONObject(1).getString("id"));
+
+		JSONObject removed = coalesced.getJSONObject(1);
+		assertEquals("2", removed.getString("id"));
+		assertTrue(removed.has("@removed"));
+		assertFalse(removed.has("displayName"));
+
+		JSONArray unique = new JSONArray().put(new JSONObject().put("id", "1"));
+		assertSame(unique, ObjectProcessing.coalesceDeltas(unique, Collections.emptySet()));
+	}
 }
@@ -0,0 +1,54 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link PageReader}
+ */
+@Test(groups = "unit")
+public class PageReaderTest {
+
+    private static final String PAGE = "https://graph.microsoft.com/v1.0/users?$skiptoken=page";
+
+    @Test(timeOut = 10000)
+    public void testCloseStopsThrottledFetcher() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch throttled = new CountDownLatch(1);
+        final Thread[] fetcher = new Thread[1];
+        GraphEndpoint endpoint = new MockGraphEndpoint(null) {
+            @Override
+            protected JSONObject callRequest(HttpRequestBase request, boolean parseResult) {
+                if (calls.incrementAndGet() > 2) {
+                    fetcher[0] = Thread.currentThread();
+                    throttled.countDown();
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        // thrown the way a request waiting for the API call limit did, losing the interruption
+                        throw new ConnectorException("Interrupted", e);
+                    }
+                }
+                return new JSONObject().put("value", new JSONArray()).put("@odata.nextLink", PAGE);
+            }
+        };
+
+        PageReader reader = new PageReader(endpoint, URI.create(PAGE), 1);
+        assertNotNull(reader.next());
+
+        // the second page waits in the full queue, the third request is throttled
+        throttled.await();
+        reader.close();
+        fetcher[0].join(5000);
+        assertFalse(fetcher[0].isAlive());
+    }
+}
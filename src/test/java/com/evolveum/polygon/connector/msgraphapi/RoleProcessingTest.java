@@ -2,6 +2,12 @@ package com.evolveum.polygon.connector.msgraphapi;
 
 import com.evolveum.polygon.connector.msgraphapi.integration.BasicConfigurationForTests;
 import org.apache.commons.io.IOUtils;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.testng.annotations.Test;
@@ -35,4 +41,53 @@ public class RoleProcessingTest extends BasicConfigurationForTests {
         assertEquals("9639bcbc-0089-4855-a793-44b940e52286", ids.get(0));
         assertEquals("f034f71e-22a8-489b-8492-f5f7133559c1", ids.get(1));
     }
+
+    @Test
+    public void testRoleDefinitionCache() {
+        final JSONArray roles = new JSONArray()
+                .put(new JSONObject().put("id", "r1").put("displayName", "Global Administrator")
+                        .put("rolePermissions", new JSONArray().put(new JSONObject()
+                                .put("allowedResourceActions", new JSONArray().put("microsoft.directory/users/read")))))
+                .put(new JSONObject().put("id", "r2").put("displayName", "Global Reader"))
+                .put(new JSONObject().put("id", "r3").put("displayName", "User Administrator"));
+        final GraphEndpoint endpoint = new MockGraphEndpoint(null) {
+            @Override
+            protected JSONArray executeListRequest(String path, String customQuery, OperationOptions options, boolean paging) {
+                return roles;
+            }
+        };
+
+        assertNull(RoleDefinitionCache.build(endpoint, 2, Long.MAX_VALUE));
+
+        final RoleDefinitionCache cache = RoleDefinitionCache.build(endpoint, 10, 1000L);
+        assertNotNull(cache);
+        assertFalse(cache.isExpired(999L));
+        assertTrue(cache.isExpired(1000L));
+
+        assertEquals("Global Reader", cache.getById("r2").getString("displayName"));
+        assertNull(cache.getById("r4"));
+        assertEquals("r3", cache.getByName("user administrator").get(0).getString("id"));
+        assertEquals(3, cache.getAll().size());
+
+        // returned objects are copies
+        cache.getById("r1").put("members", new JSONArray());
+        assertFalse(cache.getById("r1").has("members"));
+        cache.getById("r1").getJSONArray("rolePermissions").getJSONObject(0)
+                .getJSONArray("allowedResourceActions").put("microsoft.directory/users/update");
+        assertEquals(1, cache.getById("r1").getJSONArray("rolePermissions").getJSONObject(0)
+                .getJSONArray("allowedResourceActions").length());
+    }
+
+    @Test
+    public void testContainsNotPushed() {
+        final FilterPlan plan = roleProcessing.planFilter(
+                FilterBuilder.contains(AttributeBuilder.build("displayName", "Admin")));
+        assertNull(plan.getPushed());
+
+        final ConnectorObject role = new ConnectorObjectBuilder()
+                .setObjectClass(new ObjectClass(RoleProcessing.ROLE_NAME))
+                .setUid("r1").setName("Global Administrator")
+                .addAttribute("displayName", "Global Administrator").build();
+        assertTrue(plan.getResidual().accept(role));
+    }
 }
@@ -0,0 +1,96 @@
+package com.evolveum.polygon.connector.msgraphapi;
+
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClassInfo;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.AssertJUnit.*;
+
+/**
+ * Test case for {@link SaturationExecutor}
+ */
+@Test(groups = "unit")
+public class SaturationExecutorTest {
+
+    private static final int OBJECTS = 20;
+
+    @Test
+    public void testOrderedEmission() {
+        List<String> handled = new ArrayList<>();
+        ResultsHandler handler = connectorObject -> handled.add(connectorObject.getUid().getUidValue());
+
+        try (SaturationExecutor executor = new SaturationExecutor(new SlowProcessing(), handler, 4, 8)) {
+            OperationOptions options = new OperationOptionsBuilder().build();
+            for (int i = 0; i < OBJECTS; i++) {
+                assertTrue(executor.handle(options, new JSONObject().put("id", String.valueOf(i))));
+            }
+            assertTrue(executor.finish());
+        }
+
+        assertEquals(OBJECTS, handled.size());
+        for (int i = 0; i < OBJECTS; i++) {
+            assertEquals(String.valueOf(i), handled.get(i));
+        }
+    }
+
+    @Test
+    public void testStopWhenHandlerReturnsFalse() {
+        List<String> handled = new ArrayList<>();
+        ResultsHandler handler = connectorObject -> {
+            handled.add(connectorObject.getUid().getUidValue());
+            return handled.size() < 3;
+        };
+
+        boolean listing = true;
+        try (SaturationExecutor executor = new SaturationExecutor(new SlowProcessing(), handler, 2, 2)) {
+            OperationOptions options = new OperationOptionsBuilder().build();
+            for (int i = 0; i < OBJECTS && listing; i++) {
+                listing = executor.handle(options, new JSONObject().put("id", String.valueOf(i)));
+            }
+            assertFalse(listing);
+            assertFalse(executor.finish());
+        }
+
+        assertEquals(3, handled.size());
+        assertEquals("2", handled.get(2));
+    }
+
+    /**
+     * Saturation of earlier objects takes longer, so that workers finish out of order.
+     */
+    private static class SlowProcessing extends ObjectProcessing {
+
+        SlowProcessing() {
+            super(null, ICFPostMapper.builder().build());
+        }
+
+        @Override
+        protected String type() {
+            return "test";
+        }
+
+        @Override
+        protected ObjectClassInfo objectClassInfo() {
+            return null;
+        }
+
+        @Override
+        protected boolean handleJSONObject(OperationOptions options, JSONObject object, ResultsHandler handler) {
+            final String id = object.getString("id");
+            try {
+                Thread.sleep(OBJECTS - Integer.parseInt(id));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return handler.handle(new ConnectorObjectBuilder().setUid(id).setName(id).build());
+        }
+    }
+}
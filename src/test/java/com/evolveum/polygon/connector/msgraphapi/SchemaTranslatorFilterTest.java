@@ -5,6 +5,8 @@ import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.testng.annotations.Test;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.testng.AssertJUnit.*;
 
@@ -38,4 +40,58 @@ public class SchemaTranslatorFilterTest {
         assertEquals(1, attrs.length);
         assertEquals("attr", attrs[0]);
     }
+
+    @Test
+    void testSelectorAlwaysContainsIdentifiers() {
+        OperationOptions options = new OperationOptions(Collections.singletonMap(OperationOptions.OP_ATTRIBUTES_TO_GET, new String[]{"city"}));
+        String selector = schemaTranslator.selector(ObjectClass.ACCOUNT_NAME, options, ICFPostMapper.builder().build(),
+                new String[]{"id", "city", "mail"}, "id", "userPrincipalName");
+
+        assertEquals("$select=id,userPrincipalName,city", selector);
+    }
+
+    @Test
+    void testSelectorRemapsIcfAttributes() {
+        OperationOptions options = new OperationOptions(Collections.singletonMap(OperationOptions.OP_ATTRIBUTES_TO_GET, new String[]{"__ENABLE__"}));
+        ICFPostMapper postMapper = ICFPostMapper.builder().remap("__ENABLE__", "accountEnabled").build();
+        String selector = schemaTranslator.selector(ObjectClass.ACCOUNT_NAME, options, postMapper,
+                new String[]{"accountEnabled", "mail"}, "id");
+
+        assertEquals("$select=id,accountEnabled", selector);
+    }
+
+    @Test
+    void testSelectorIsCached() {
+        OperationOptions options = new OperationOptions(Collections.singletonMap(OperationOptions.OP_ATTRIBUTES_TO_GET, new String[]{"mail"}));
+        String[] attrs = {"id", "mail"};
+        String first = schemaTranslator.selector(ObjectClass.GROUP_NAME, options, ICFPostMapper.builder().build(), attrs, "id");
+        String second = schemaTranslator.selector(ObjectClass.GROUP_NAME, options, ICFPostMapper.builder().build(), attrs, "id");
+
+        assertSame(first, second);
+    }
+
+    @Test
+    void testAttributePlanIsCachedPerSignature() {
+        OperationOptions first = new OperationOptions(Collections.singletonMap(OperationOptions.OP_ATTRIBUTES_TO_GET, new String[]{"memberOfGroup"}));
+        OperationOptions second = new OperationOptions(Collections.singletonMap(OperationOptions.OP_ATTRIBUTES_TO_GET, new String[]{"memberOfGroup"}));
+
+        assertSame(schemaTranslator.getAttributePlan(ObjectClass.ACCOUNT_NAME, first),
+                schemaTranslator.getAttributePlan(ObjectClass.ACCOUNT_NAME, second));
+    }
+
+    @Test
+    void testAttributePlanFlags() {
+        Map<String, Object> map = new HashMap<>();
+        map.put(OperationOptions.OP_ATTRIBUTES_TO_GET, new String[]{"memberOfGroup"});
+        map.put(OperationOptions.OP_ALLOW_PARTIAL_ATTRIBUTE_VALUES, true);
+        AttributePlan partial = schemaTranslator.getAttributePlan(ObjectClass.ACCOUNT_NAME, new OperationOptions(map));
+        AttributePlan complete = schemaTranslator.getAttributePlan(ObjectClass.ACCOUNT_NAME,
+                new OperationOptions(Collections.singletonMap(OperationOptions.OP_ATTRIBUTES_TO_GET, new String[]{"memberOfGroup"})));
+
+        assertTrue(partial.isIncomplete("memberOfGroup"));
+        assertFalse(partial.shouldSaturate("memberOfGroup"));
+        assertTrue(complete.shouldSaturate("memberOfGroup"));
+        assertFalse(complete.isIncomplete("memberOfGroup"));
+        assertFalse(complete.shouldSaturate("ownerOfGroup"));
+    }
 }
@@ -2,16 +2,25 @@ package com.evolveum.polygon.connector.msgraphapi;
 
 import com.evolveum.polygon.connector.msgraphapi.integration.BasicConfigurationForTests;
 import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeDelta;
 import org.identityconnectors.framework.common.objects.AttributeDeltaBuilder;
+import org.identityconnectors.framework.common.objects.AttributeInfo;
+import org.identityconnectors.framework.common.objects.AttributeValueCompleteness;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -227,4 +236,210 @@ public class UserProcessingTest extends BasicConfigurationForTests {
         assertEquals("a", interests.getString(0));
         assertEquals("b", interests.getString(1));
     }
+
+    @Test
+    public void testTransitiveMembershipSchema() {
+        MockGraphEndpoint mockGraphEndpoint = new MockGraphEndpoint(null);
+        SchemaTranslator schemaTranslator = mockGraphEndpoint.getSchemaTranslator();
+
+        AttributeInfo info = schemaTranslator.getConnIdSchemaMap().get(ObjectClass.ACCOUNT_NAME).get("transitiveMemberOfGroup");
+        assertNotNull(info);
+        assertTrue(info.isMultiValued());
+        assertTrue(info.isReadable());
+        assertFalse(info.isCreateable());
+        assertFalse(info.isUpdateable());
+        assertFalse(info.isReturnedByDefault());
+    }
+
+    @Test
+    public void testTransitiveMembershipFromGroupAncestors() {
+        List<String> requests = new ArrayList<>();
+        MockGraphEndpoint mockGraphEndpoint = new MockGraphEndpoint(null) {
+            @Override
+            protected JSONArray executeListRequest(String path, String customQuery, OperationOptions options,
+                                                   boolean paging) {
+                requests.add(path);
+                if (path.startsWith("/groups/g1/")) {
+                    return groups("p1");
+                }
+                if (path.startsWith("/groups/g2/")) {
+                    return groups("p1", "p2");
+                }
+                return groups("g1", "p1");
+            }
+        };
+        UserProcessing userProcessing = new UserProcessing(mockGraphEndpoint, mockGraphEndpoint.getSchemaTranslator());
+
+        JSONObject user = userProcessing.saturateTransitiveGroupMembership(new JSONObject().put("id", "u1")
+                .put("memberOfGroup", new JSONArray().put("g1").put("g2")));
+        assertEquals(Arrays.asList("g1", "p1", "g2", "p2"), user.getJSONArray("transitiveMemberOfGroup").toList());
+
+        // ancestors of g1 are memoized
+        user = userProcessing.saturateTransitiveGroupMembership(new JSONObject().put("id", "u2")
+                .put("memberOfGroup", new JSONArray().put("g1")));
+        assertEquals(Arrays.asList("g1", "p1"), user.getJSONArray("transitiveMemberOfGroup").toList());
+
+        // without direct groups the transitive membership of the user is read
+        user = userProcessing.saturateTransitiveGroupMembership(new JSONObject().put("id", "u3"));
+        assertEquals(Arrays.asList("g1", "p1"), user.getJSONArray("transitiveMemberOfGroup").toList());
+
+        assertEquals(Arrays.asList(
+                "/groups/g1/transitiveMemberOf/microsoft.graph.group",
+                "/groups/g2/transitiveMemberOf/microsoft.graph.group",
+                "/users/u3/transitiveMemberOf/microsoft.graph.group"), requests);
+    }
+
+    @Test
+    public void testDirectlyFetchedName() {
+        assertEquals("john@example.com",
+                UserProcessing.toDirectlyFetchedName(FilterBuilder.equalTo(new Name("john@example.com"))));
+        assertEquals("john_example.com#EXT#@example.onmicrosoft.com", UserProcessing.toDirectlyFetchedName(
+                FilterBuilder.equalTo(AttributeBuilder.build("userPrincipalName",
+                        "john_example.com#EXT#@example.onmicrosoft.com"))));
+
+        assertNull(UserProcessing.toDirectlyFetchedName(FilterBuilder.equalTo(new Name("a/b@example.com"))));
+        assertNull(UserProcessing.toDirectlyFetchedName(
+                FilterBuilder.equalTo(new Name("0b9e3c5a-46d5-4b0e-9f2e-3c1f5a6d7e8f"))));
+        assertNull(UserProcessing.toDirectlyFetchedName(FilterBuilder.equalTo(new Name(""))));
+        assertNull(UserProcessing.toDirectlyFetchedName(FilterBuilder.equalTo(new Name("o'brien@example.com"))));
+        assertNull(UserProcessing.toDirectlyFetchedName(
+                FilterBuilder.equalTo(AttributeBuilder.build("displayName", "John"))));
+        assertNull(UserProcessing.toDirectlyFetchedName(
+                FilterBuilder.startsWith(AttributeBuilder.build("userPrincipalName", "john"))));
+    }
+
+    @Test
+    public void testFetchedByNameOfAnotherUser() {
+        MockGraphEndpoint mockGraphEndpoint = new MockGraphEndpoint(null) {
+            @Override
+            protected JSONObject executeGetRequest(String path, String customQuery, OperationOptions options) {
+                return path.startsWith("/users/john@example.com/") ? user("u1") : user("john");
+            }
+        };
+        UserProcessing userProcessing = new UserProcessing(mockGraphEndpoint, mockGraphEndpoint.getSchemaTranslator());
+        List<ConnectorObject> users = new ArrayList<>();
+        OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("displayName").build();
+
+        userProcessing.executeQueryForUserByName("john@example.com", users::add, options);
+        assertTrue(users.isEmpty());
+
+        userProcessing.executeQueryForUserByName("JOHN@example.com", users::add, options);
+        assertEquals(1, users.size());
+        assertEquals("john@example.com", users.get(0).getName().getNameValue());
+    }
+
+    @Test
+    public void testManagerSaturatedWithoutExpansion() {
+        List<String> requests = new ArrayList<>();
+        MockGraphEndpoint mockGraphEndpoint = new MockGraphEndpoint(null) {
+            @Override
+            protected JSONObject executeGetRequest(String path, String customQuery, OperationOptions options) {
+                requests.add(path);
+                if (path.startsWith("/users/u2/")) {
+                    throw new UnknownUidException("No manager");
+                }
+                return new JSONObject().put("id", "m1");
+            }
+        };
+        UserProcessing userProcessing = new UserProcessing(mockGraphEndpoint, mockGraphEndpoint.getSchemaTranslator());
+        List<ConnectorObject> users = new ArrayList<>();
+
+        OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("manager.id").build();
+        userProcessing.handleJSONObject(options, user("u1"), users::add);
+        userProcessing.handleJSONObject(options, user("u2"), users::add);
+        assertEquals(Arrays.asList("/users/u1/manager", "/users/u2/manager"), requests);
+        assertEquals(Collections.singletonList("m1"), users.get(0).getAttributeByName("manager.id").getValue());
+        assertNull(users.get(1).getAttributeByName("manager.id"));
+
+        // with partial values allowed the manager is marked incomplete instead
+        OperationOptions partial = new OperationOptionsBuilder().setAttributesToGet("manager.id")
+                .setAllowPartialAttributeValues(true).build();
+        userProcessing.handleJSONObject(partial, user("u3"), users::add);
+        assertEquals(2, requests.size());
+        assertEquals(AttributeValueCompleteness.INCOMPLETE,
+                users.get(2).getAttributeByName("manager.id").getAttributeValueCompleteness());
+    }
+
+    @Test
+    public void testPrefetchedLastSignIns() {
+        List<String> requests = new ArrayList<>();
+        UserProcessing userProcessing = signInProcessing(requests);
+        OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("lastSignIn").build();
+        List<ConnectorObject> users = new ArrayList<>();
+
+        userProcessing.prefetchLastSignIns(options);
+        userProcessing.handleJSONObject(options, user("u1"), users::add);
+        userProcessing.handleJSONObject(options, user("u3"), users::add);
+
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).startsWith("$filter=createdDateTime ge "));
+        assertEquals(Collections.singletonList("2024-05-02T10:00:00Z"),
+                users.get(0).getAttributeByName("lastSignIn").getValue());
+        // no sign-in record within the scanned days
+        assertNull(users.get(1).getAttributeByName("lastSignIn"));
+    }
+
+    @Test
+    public void testLookedUpLastSignIn() {
+        List<String> requests = new ArrayList<>();
+        UserProcessing userProcessing = signInProcessing(requests);
+        OperationOptions options = new OperationOptionsBuilder().setAttributesToGet("lastSignIn").build();
+        List<ConnectorObject> users = new ArrayList<>();
+
+        userProcessing.lookUpLastSignIns(options);
+        userProcessing.handleJSONObject(options, user("u1"), users::add);
+        userProcessing.handleJSONObject(options, user("u3"), users::add);
+
+        assertEquals(Arrays.asList("$top=1&$filter=userId eq 'u1'", "$top=1&$filter=userId eq 'u3'"), requests);
+        assertEquals(Collections.singletonList("2024-05-02T10:00:00Z"),
+                users.get(0).getAttributeByName("lastSignIn").getValue());
+        assertNull(users.get(1).getAttributeByName("lastSignIn"));
+    }
+
+    /**
+     * Processing of a tenant without signInActivity, with two sign-ins of u1 and one of u2 in the sign-in log.
+     */
+    private static UserProcessing signInProcessing(List<String> requests) {
+        MSGraphConfiguration configuration = new MSGraphConfiguration();
+        configuration.setSignInScanDays(30);
+        MockGraphEndpoint mockGraphEndpoint = new MockGraphEndpoint(configuration) {
+            @Override
+            protected void executeListRequest(String path, String customQuery, OperationOptions options,
+                                              boolean paging, ObjectProcessing.JSONObjectHandler handler) {
+                assertEquals("/auditLogs/signIns", path);
+                requests.add(customQuery);
+                // the log is sorted from the most recent sign-in
+                List<JSONObject> signIns = Arrays.asList(
+                        signIn("u1", "2024-05-02T10:00:00Z"),
+                        signIn("u2", "2024-05-01T12:00:00Z"),
+                        signIn("u1", "2024-05-01T08:00:00Z"));
+                for (JSONObject signIn : signIns) {
+                    String userId = signIn.getString("userId");
+                    if (customQuery.contains("userId eq") && !customQuery.endsWith("'" + userId + "'")) {
+                        continue;
+                    }
+                    if (!handler.handle(options, signIn)) {
+                        return;
+                    }
+                }
+            }
+        };
+        return new UserProcessing(mockGraphEndpoint, mockGraphEndpoint.getSchemaTranslator());
+    }
+
+    private static JSONObject signIn(String userId, String createdDateTime) {
+        return new JSONObject().put("userId", userId).put("createdDateTime", createdDateTime);
+    }
+
+    private static JSONObject user(String id) {
+        return new JSONObject().put("id", id).put("userPrincipalName", id + "@example.com");
+    }
+
+    private static JSONArray groups(String... ids) {
+        JSONArray groups = new JSONArray();
+        for (String id : ids) {
+            groups.put(new JSONObject().put("id", id));
+        }
+        return groups;
+    }
 }